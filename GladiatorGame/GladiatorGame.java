@@ -4,8 +4,25 @@ import java.awt.event.*;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.*;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import javax.sound.sampled.*;
 
 /**
@@ -24,36 +41,100 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
     private static int HEIGHT = 600;
     private static boolean isFullscreen = false;
     private static final String TITLE = "Gladiator Arena 3D: Champion Edition";
+    // Raycaster worker threads (1 = serial). Override with -Dgladiator.renderThreads=N
+    static int renderThreads = Integer.getInteger("gladiator.renderThreads", Runtime.getRuntime().availableProcessors());
+    // Frame cap while playing (0 = uncapped). Override with -Dgladiator.fps=N
+    static int targetFps = Integer.getInteger("gladiator.fps", 144);
+    private static final int MENU_FPS = 30;              // Menus only poll for changes at this rate
+    private static final int MAX_UPDATES_PER_FRAME = 5;  // Catch-up cap; older backlog is dropped
+    // Lower the internal render resolution when frames run over budget. Disable with -Dgladiator.dynamicRes=false
+    private static boolean dynamicRes = !"false".equals(System.getProperty("gladiator.dynamicRes"));
 
     // Game States
     private enum State { MENU, SETTINGS, PLAYING, GAME_OVER, VICTORY }
-    private State gameState = State.MENU;
+    private volatile State gameState = State.MENU;
 
-    // Engine
-    private Thread thread;
-    private boolean running;
+    // Engine: the simulation thread ticks at 60 Hz and publishes snapshots, the render thread draws the latest one
+    private Thread simThread, renderThread;
+    private volatile boolean running;
     private BufferedImage image;
     private int[] pixels;
-    private Camera camera;
+    private final Camera renderCamera = new Camera(0, 0, 1, 0, 0.66); // Camera interpolated between ticks
     private Screen screen;
     private InputHandler input;
+    private Robot robot;                  // Created once; recentres the cursor while it is locked
+    private volatile Point windowOrigin;  // Cached getLocationOnScreen(), refreshed when the window moves
+    private volatile boolean menuDirty = true; // Menus are only redrawn when something changed
+    private final SnapshotBuffer snapshots = new SnapshotBuffer();
+    // Menu clicks and keys from the EDT, run on the simulation thread between ticks
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicLong updateNs = new AtomicLong(); // Simulation time since render last sampled it
+    private final HudLayers hud = new HudLayers();
+    private final ResolutionScaler scaler = new ResolutionScaler(targetFps);
+    private final Presenter presenter = new Presenter();
+    private volatile boolean buffersStale; // Set by the simulation and render threads; the render thread reallocates before its next frame
+    private long renderWorkNs; // Raycast + sprite time of the last frame, fed to the scaler
+    private final FrameProfiler profiler = new FrameProfiler(); // F3 toggles its overlay
     
     // Game Objects
-    private Level level;
-    private Player player;
+    private Simulation sim; // Current session
     private SoundEngine soundEngine;
-    private CombatSystem combatSystem;
-    private ParticleSystem particleSystem;
-    
-    private int damageFlashTimer = 0;
-    private double damageShake = 0; // Camera shake intensity
+    private Random fxRng = new Random(); // Screen shake, drawn per tick; reseeded per session so a replay shakes the same way
+    private InputRecorder recorder;     // Per-session input log when -Dgladiator.record=<file> is set
+    private InputReplay replay;         // Input source instead of the keyboard when started with --replay
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--bench")) { // The harness lives in test/, so only with the test classes on the classpath
+            try {
+                Class.forName("GladiatorBench").getMethod("run", String.class).invoke(null, args.length > 1 ? args[1] : "");
+            } catch (ClassNotFoundException e) {
+                System.err.println("--bench needs the test classes: mvn test-compile, then java -cp target/classes:target/test-classes GladiatorGame --bench");
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e.getCause() != null ? e.getCause() : e);
+            }
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--export-arena")) {
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+            File file = new File(args[1]);
+            new Level(128, 128, seed).tiles.save(file);
+            System.out.println("Wrote the generated arena for seed " + seed + " to " + file + " (" + file.length() + " bytes)");
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            Batch.run(args);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--replay")) {
+            if (args.length > 2 && args[2].equals("--headless")) { replayHeadless(args[1]); return; }
+            GladiatorGame game = new GladiatorGame();
+            game.replay = InputReplay.open(args[1]);
+            game.initGame();
+            game.gameState = State.PLAYING;
+            game.start();
+            return;
+        }
         GladiatorGame game = new GladiatorGame();
         game.start();
     }
 
+    // Re-runs a recorded session as fast as the simulation goes and prints how it ended
+    private static void replayHeadless(String file) throws IOException {
+        try (InputReplay in = InputReplay.open(file)) {
+            Simulation sim = new Simulation(in.seed, SoundEngine.silent(), in.arena);
+            InputHandler input = new InputHandler();
+            int outcome = Simulation.RUNNING;
+            long t0 = System.nanoTime();
+            while (outcome == Simulation.RUNNING && in.next(input)) outcome = sim.tick(input);
+            double secs = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("%s: seed %d, %d ticks in %.3f s (%.0f ticks/s, %.1fx real time), %s at wave %d, checksum %016x%n",
+                file, in.seed, sim.ticks, secs, sim.ticks / secs, sim.ticks / 60.0 / secs,
+                outcome == Simulation.DIED ? "died" : outcome == Simulation.WON ? "won" : "still fighting", sim.level.currentWave, sim.checksum());
+        }
+    }
+
     public GladiatorGame() {
+        AssetPack.start(); // Textures and sounds load behind the menu
         initScreenBuffers();
         input = new InputHandler();
         
@@ -67,20 +148,33 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
         addKeyListener(this);
         addMouseListener(this);
         addMouseMotionListener(this);
+        addComponentListener(new ComponentAdapter() {
+            public void componentMoved(ComponentEvent e) { updateWindowOrigin(); }
+            public void componentResized(ComponentEvent e) { updateWindowOrigin(); }
+            public void componentShown(ComponentEvent e) { updateWindowOrigin(); }
+        });
+        try { robot = new Robot(); } catch (Exception e) {}
         
         setVisible(true);
+        updateWindowOrigin();
         
         soundEngine = new SoundEngine();
-        TextureManager.init(); 
     }
 
+    private void updateWindowOrigin() {
+        try { windowOrigin = getLocationOnScreen(); } catch (IllegalComponentStateException e) { windowOrigin = null; }
+    }
+
+    // Internal buffers at the scaler's fraction of the window. Only the render thread calls this once it is running
     private void initScreenBuffers() {
-        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int w = dynamicRes ? scaler.scaled(WIDTH) : WIDTH, h = dynamicRes ? scaler.scaled(HEIGHT) : HEIGHT;
+        image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
         pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-        screen = new Screen(WIDTH, HEIGHT);
+        screen = new Screen(w, h);
+        screen.setWorkers(renderThreads);
     }
     
-    // SAFER Fullscreen Toggle (Borderless Window)
+    // SAFER Fullscreen Toggle (Borderless Window). EDT only
     private void toggleFullscreen() {
         dispose(); 
         isFullscreen = !isFullscreen;
@@ -98,227 +192,238 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
             setSize(WIDTH, HEIGHT);
             setLocationRelativeTo(null);
         }
-        initScreenBuffers();
+        buffersStale = true;
         setVisible(true);
+        updateWindowOrigin();
     }
 
     private void initGame() {
-        level = new Level(128, 128); 
-        camera = new Camera(64.5, 64.5, 1, 0, 0.66);
-        player = new Player(camera);
-        
-        combatSystem = new CombatSystem(player, level, soundEngine);
-        particleSystem = new ParticleSystem();
-        damageFlashTimer = 0;
-        damageShake = 0;
+        if (replay != null && sim != null) { // Leaving a replay for a live game
+            try { replay.close(); } catch (IOException e) {}
+            replay = null;
+        }
+        TextureManager.init(); // Only waits if the first launch is still baking
+        Long fixed = Long.getLong("gladiator.seed");
+        long seed = replay != null ? replay.seed : fixed != null ? fixed : System.nanoTime();
+        TileMap map = replay != null ? replay.arena : arena();
+        sim = new Simulation(seed, soundEngine, map);
+        fxRng = new Random(~seed);
+        closeRecorder();
+        String path = System.getProperty("gladiator.record");
+        if (path != null && replay == null) {
+            try { recorder = InputRecorder.create(path, sim); }
+            catch (IOException e) { System.err.println("Not recording: " + e); }
+        }
         
+        input.clearMotion();
         input.cursorLocked = true;
         hideCursor(true);
+        publish(); // Render never sees the previous session's last frame
     }
 
     public synchronized void start() {
         running = true;
-        thread = new Thread(this, "GameEngine");
-        thread.start();
+        simThread = new Thread(this, "GameEngine");
+        renderThread = new Thread(this::renderLoop, "Render");
+        simThread.start();
+        renderThread.start();
     }
 
+    // Simulation thread: EDT commands, then any due 60 Hz ticks, each published as a snapshot
     public void run() {
-        long lastTime = System.nanoTime();
-        final double ns = 1000000000.0 / 60.0;
-        double delta = 0;
-        
+        final long tickNs = 1_000_000_000L / 60;
+        long next = System.nanoTime();
+        State last = null;
+
         while (running) {
+            for (Runnable c; (c = commands.poll()) != null; ) c.run();
             long now = System.nanoTime();
-            delta += (now - lastTime) / ns;
-            lastTime = now;
-            while (delta >= 1) {
+            int updates = 0;
+            while (now - next >= 0 && updates < MAX_UPDATES_PER_FRAME) {
                 update();
-                delta--;
+                next += tickNs;
+                updates++;
+            }
+            if (now - next >= 0) next = now + tickNs; // Too far behind: drop the backlog instead of spiralling
+            if (updates > 0 && gameState == State.PLAYING) updateNs.addAndGet(System.nanoTime() - now);
+
+            State state = gameState;
+            if (last == State.PLAYING && state != State.PLAYING && recorder != null) { // Paused: get the session so far onto disk
+                try { recorder.flush(); } catch (IOException e) { System.err.println("Recording stopped: " + e); recorder = null; }
+            }
+            last = state;
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+    }
+
+    // Render thread: draws the newest snapshot at the frame cap while playing, menus only when they change
+    private void renderLoop() {
+        FramePacer gamePacer = new FramePacer(targetFps);
+        FramePacer menuPacer = new FramePacer(MENU_FPS);
+        State lastDrawn = null;
+
+        while (running) {
+            if (buffersStale) {
+                buffersStale = false;
+                initScreenBuffers();
+            }
+            State state = gameState;
+            if (state == State.PLAYING) {
+                long pending = updateNs.getAndSet(0);
+                if (pending > 0) profiler.record(FrameProfiler.UPDATE, pending);
+                render(snapshots.latest());
+                if (dynamicRes && scaler.update(renderWorkNs)) buffersStale = true;
+                gamePacer.sync();
+            } else {
+                if (menuDirty || state != lastDrawn) {
+                    menuDirty = false;
+                    render(null);
+                }
+                menuPacer.sync();
             }
-            render();
+            lastDrawn = state;
         }
     }
 
     private void update() {
         if (gameState == State.PLAYING) {
+            sim.camera.savePrevious();
             updateGame();
+            if (gameState == State.PLAYING) publish();
         } 
     }
 
-    private void updateGame() {
-        double moveSpeed = 0.08; // Slightly faster movement
-        
-        if (player.stamina < player.maxStamina) player.stamina += 0.2;
-        
-        if (input.block && player.stamina > 0) {
-            player.isBlocking = true;
-            moveSpeed *= 0.5; 
-            player.stamina -= 0.3;
-        } else {
-            player.isBlocking = false;
-        }
+    private void publish() {
+        snapshots.back().capture(sim, fxRng);
+        snapshots.publish();
+    }
 
-        // Mouse Look
-        if (input.cursorLocked) {
-             int cx = getWidth()/2;
-             int cy = getHeight()/2;
-             if (input.mouseX != cx) {
-                double rot = (input.mouseX - cx) * 0.0015;
-                camera.rotate(rot);
-                try {
-                    Robot robot = new Robot();
-                    Point p = getLocationOnScreen();
-                    robot.mouseMove(p.x + cx, p.y + cy);
-                    input.mouseX = cx; 
-                } catch (Exception e) {}
-            }
-        }
-        
-        // STANDARD MOVEMENT (Fixed: No Inversion)
-        double dx = 0, dy = 0;
-        if (input.forward) { dx += camera.xDir; dy += camera.yDir; }
-        if (input.back) { dx -= camera.xDir; dy -= camera.yDir; }
-        
-        // Strafe Left: -Y, X
-        if (input.strafeLeft) { 
-            dx -= camera.yDir * 0.8; 
-            dy += camera.xDir * 0.8; 
-        } 
-        // Strafe Right: Y, -X
-        if (input.strafeRight) { 
-            dx += camera.yDir * 0.8; 
-            dy -= camera.xDir * 0.8; 
-        }
-        
-        if (dx != 0 || dy != 0) {
-            player.headBob += 0.15;
-            double destX = camera.xPos + dx * moveSpeed;
-            double destY = camera.yPos + dy * moveSpeed;
-            
-            if(!level.isWall(destX + 0.3, camera.yPos)) camera.xPos = destX;
-            if(!level.isWall(camera.xPos, destY + 0.3)) camera.yPos = destY;
-            
-            // TRAP CHECK
-            int mapX = (int)camera.xPos;
-            int mapY = (int)camera.yPos;
-            if (level.map[mapX][mapY] == 2) { 
-                if (player.trapTimer == 0) {
-                    player.health -= 15;
-                    damageFlashTimer = 10;
-                    damageShake = 15.0; // Violent shake
-                    soundEngine.playTrap();
-                    player.trapTimer = 40; 
-                }
-            }
+    // -Dgladiator.arena=<file> plays a saved map instead of the generated one. Mapped fresh per session so a
+    // file replaced between games is picked up
+    private static TileMap arena() {
+        String path = System.getProperty("gladiator.arena");
+        if (path == null) return null;
+        try { return TileMap.load(new File(path)); }
+        catch (IOException e) { System.err.println("Using the generated arena: " + e.getMessage()); return null; }
+    }
+
+    private void closeRecorder() {
+        if (recorder == null) return;
+        try { recorder.close(); } catch (IOException e) { System.err.println("Recording incomplete: " + e); }
+        recorder = null;
+    }
+
+    private void updateGame() {
+        if (replay != null) {
+            if (!replay.next(input)) { endReplay(); return; }
         } else {
-            player.headBob = 0;
+            input.poll();
+            // Mouse look only counts while the cursor is captured; what the simulation sees is what gets recorded
+            if (input.cursorLocked) recenterCursor();
+            else input.mouseDx = 0;
         }
-        
-        if (player.trapTimer > 0) player.trapTimer--;
-        
-        // Camera Shake Decay
-        if (damageShake > 0) damageShake *= 0.9;
-
-        // Combat
-        if (input.attack && player.attackTimer == 0 && player.stamina > 15 && !player.isBlocking) {
-            player.attackTimer = 20;
-            player.stamina -= 15;
-            double r = Math.random();
-            if (r < 0.33) player.currentAttack = Player.AttackType.SLASH;
-            else if (r < 0.66) player.currentAttack = Player.AttackType.STAB;
-            else player.currentAttack = Player.AttackType.OVERHEAD;
-            
-            soundEngine.playWoosh();
-            combatSystem.playerAttack();
+        if (recorder != null) {
+            try { recorder.write(input); }
+            catch (IOException e) { System.err.println("Recording stopped: " + e); recorder = null; }
         }
-        
-        if (player.attackTimer > 0) player.attackTimer--;
-        if (damageFlashTimer > 0) damageFlashTimer--;
 
-        boolean enemiesAlive = false;
-        for (Iterator<Enemy> it = level.enemies.iterator(); it.hasNext();) {
-            Enemy e = it.next();
-            if(!e.isDead) enemiesAlive = true;
-            
-            boolean hitPlayer = combatSystem.updateEnemyAI(e);
-            if(hitPlayer) {
-                damageFlashTimer = 10;
-                damageShake = 10.0; // Hit shake
-            }
-            
-            if (e.isDead) {
-                if (e.deathTimer > 0) e.deathTimer--;
-                else it.remove();
-            }
-        }
-        
-        particleSystem.update();
-        
-        if (player.health <= 0) {
-            gameState = State.GAME_OVER;
+        int outcome = sim.tick(input);
+        if (outcome == Simulation.DIED) gameState = State.GAME_OVER;
+        else if (outcome == Simulation.WON) gameState = State.VICTORY;
+        if (outcome != Simulation.RUNNING) {
             hideCursor(false);
-            soundEngine.playDeath();
+            closeRecorder();
         }
-        
-        if (!enemiesAlive && level.enemies.isEmpty() && gameState != State.VICTORY) {
-            level.currentWave++;
-            if(level.currentWave > 5) {
-                gameState = State.VICTORY;
-                hideCursor(false);
-            } else {
-                level.spawnWave(level.currentWave + 2);
-                soundEngine.playHorn();
-            }
+    }
+
+    private void endReplay() {
+        gameState = State.MENU;
+        menuDirty = true;
+        hideCursor(false);
+        try { replay.close(); } catch (IOException e) {}
+        replay = null;
+    }
+
+    private void recenterCursor() {
+        Point origin = windowOrigin;
+        if (robot == null || origin == null) return;
+        int cx = getWidth()/2, cy = getHeight()/2;
+        if (Math.abs(input.lastX - cx) > cx/2 || Math.abs(input.lastY - cy) > cy/2) {
+            input.warpTo(cx, cy);
+            robot.mouseMove(origin.x + cx, origin.y + cy);
         }
     }
 
-    private void render() {
+    // Draws snapshot s, or the current menu when s is null
+    private void render(Snapshot s) {
         BufferStrategy bs = getBufferStrategy();
-        if (bs == null) { createBufferStrategy(3); return; }
+        if (bs == null) { createBufferStrategy(3); menuDirty = true; return; }
         Graphics g = bs.getDrawGraphics();
 
-        if (gameState == State.PLAYING) {
+        if (s != null) {
+            Player player = s.player; Level level = s.level;
             double verticalBob = Math.sin(player.headBob) * 10.0;
             
             // Apply Camera Shake to Render Offset
-            double shakeOffset = (Math.random() - 0.5) * damageShake;
+            double offset = (verticalBob + s.shake) * screen.h / HEIGHT; // Window pixels to internal rows
             
-            screen.render(camera, level, pixels, verticalBob + shakeOffset);
+            renderCamera.interpolate(s.camera, (System.nanoTime() - s.tickNs) / (1e9 / 60));
+            screen.render(renderCamera, level, pixels, offset);
+            profiler.record(FrameProfiler.WALLS, screen.wallNs);
+            profiler.record(FrameProfiler.FLOOR, screen.floorNs);
             
-            List<Sprite> renderList = new ArrayList<>(level.enemies);
-            renderList.add(level.emperor);
-            renderList.addAll(particleSystem.particles);
-            screen.renderSprites(camera, renderList, pixels, verticalBob + shakeOffset);
+            long t0 = System.nanoTime();
+            screen.renderSprites(renderCamera, s.sprites, pixels, offset);
+            long t1 = System.nanoTime();
+            profiler.record(FrameProfiler.SPRITES, t1 - t0);
+            renderWorkNs = screen.wallNs + screen.floorNs + (t1 - t0);
 
-            g.drawImage(image, 0, 0, WIDTH, HEIGHT, null);
+            presenter.present((Graphics2D)g, image, WIDTH, HEIGHT, getGraphicsConfiguration());
 
-            if(damageFlashTimer > 0) {
-                g.setColor(new Color(255, 0, 0, 100));
+            if(s.damageFlashTimer > 0) {
+                g.setColor(HudLayers.FLASH);
                 g.fillRect(0, 0, WIDTH, HEIGHT);
             }
 
-            renderHUD(g, verticalBob);
-            renderMinimap(g);
+            Graphics2D g2 = (Graphics2D)g;
+            long t2 = System.nanoTime();
+            hud.drawHUD(g2, player, s.wave, WIDTH, HEIGHT, verticalBob);
+            long t3 = System.nanoTime();
+            hud.drawMinimap(g2, s.camera, level, s.dots);
+            long t4 = System.nanoTime();
+            profiler.record(FrameProfiler.HUD, t3 - t2);
+            profiler.record(FrameProfiler.MINIMAP, t4 - t3);
+            if (profiler.visible) profiler.drawOverlay(g2, WIDTH, new String[]{
+                String.format("input    last %5.2f  avg %5.2f ms", input.latencyNanos / 1e6, input.avgLatencyNanos / 1e6),
+                String.format("present  %s, %d restores", Presenter.NAMES[presenter.path], presenter.restores),
+                AssetPack.loadNs == 0 ? "assets   loading" : String.format("assets   %s in %d ms", AssetPack.origin, AssetPack.loadNs / 1_000_000),
+                String.format("arena    %d chunks copied", level.tiles.owned)});
+
+            g.dispose();
+            bs.show();
+            // Present: stretching the frame into the back buffer plus the flip
+            profiler.record(FrameProfiler.PRESENT, (t2 - t1) + (System.nanoTime() - t4));
+            profiler.endFrame(System.nanoTime());
         } else {
             renderMenu(g);
+            g.dispose();
+            bs.show();
         }
-
-        g.dispose();
-        bs.show();
+        if (bs.contentsLost()) menuDirty = true;
     }
 
     private void renderMenu(Graphics g) {
-        g.setColor(new Color(20, 10, 10));
+        g.setColor(HudLayers.MENU_BG);
         g.fillRect(0, 0, WIDTH, HEIGHT);
         
-        g.setColor(new Color(212, 175, 55)); 
-        g.setFont(new Font("Serif", Font.BOLD, 50));
+        g.setColor(HudLayers.GOLD); 
+        g.setFont(HudLayers.TITLE_FONT);
         
         String title = "GLADIATOR ARENA";
         int tw = g.getFontMetrics().stringWidth(title);
         g.drawString(title, WIDTH/2 - tw/2, 100);
         
-        g.setFont(new Font("SansSerif", Font.PLAIN, 30));
+        g.setFont(HudLayers.BUTTON_FONT);
         
         int midX = WIDTH/2;
         
@@ -344,9 +449,9 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
     }
     
     private void drawButton(Graphics g, String text, int x, int y, int w, int h) {
-        g.setColor(new Color(50, 30, 20));
+        g.setColor(HudLayers.BUTTON);
         g.fillRect(x, y, w, h);
-        g.setColor(new Color(212, 175, 55));
+        g.setColor(HudLayers.GOLD);
         g.drawRect(x, y, w, h);
         
         int strW = g.getFontMetrics().stringWidth(text);
@@ -354,128 +459,9 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
         g.drawString(text, x + (w - strW)/2, y + (h + strH)/2 - 5);
     }
 
-    private void renderMinimap(Graphics g) {
-        int size = 130;
-        int x = 20, y = 20;
-        
-        Graphics2D g2d = (Graphics2D)g;
-        Shape oldClip = g2d.getClip();
-        g2d.setClip(new Ellipse2D.Float(x, y, size, size));
-        
-        g2d.setColor(new Color(0, 0, 0, 180));
-        g2d.fillRect(x, y, size, size);
-        
-        int cx = x + size/2;
-        int cy = y + size/2;
-        double scale = 1.5; 
-        
-        g.setColor(Color.DARK_GRAY);
-        for(int i=-20; i<20; i++) {
-            for(int j=-20; j<20; j++) {
-                int mx = (int)camera.xPos + i;
-                int my = (int)camera.yPos + j;
-                if(mx>=0 && mx<level.w && my>=0 && my<level.h) {
-                    if(level.map[mx][my] == 2) { 
-                        int dx = (int)(i * scale * 4); 
-                        int dy = (int)(j * scale * 4);
-                        g.fillRect(cx + dx - 2, cy + dy - 2, 4, 4);
-                    }
-                }
-            }
-        }
-
-        g.setColor(Color.RED);
-        for(Enemy e : level.enemies) {
-            if(e.isDead) continue;
-            double relX = (e.x - camera.xPos);
-            double relY = (e.y - camera.yPos);
-            int dx = (int)(relX * scale * 4);
-            int dy = (int)(relY * scale * 4);
-            if(Math.abs(dx) < size/2 && Math.abs(dy) < size/2) {
-                g.fillOval(cx + dx - 3, cy + dy - 3, 6, 6);
-            }
-        }
-        
-        g.setColor(Color.GREEN);
-        g.fillOval(cx-3, cy-3, 6, 6);
-        g.drawLine(cx, cy, cx + (int)(camera.xDir*15), cy + (int)(camera.yDir*15));
-        
-        g2d.setClip(oldClip);
-        g2d.setColor(new Color(212, 175, 55));
-        g2d.setStroke(new BasicStroke(3));
-        g2d.drawOval(x, y, size, size);
-        g2d.setStroke(new BasicStroke(1));
-    }
-
-    private void renderHUD(Graphics g, double bobOffset) {
-        int handY = (int)(bobOffset);
-        
-        if (player.isBlocking) {
-            int sx = 200, sy = HEIGHT - 280 + handY;
-            g.setColor(new Color(60, 40, 20));
-            g.fillOval(sx, sy, 220, 220);
-            g.setColor(Color.LIGHT_GRAY);
-            ((Graphics2D)g).setStroke(new BasicStroke(5));
-            g.drawOval(sx, sy, 220, 220);
-            ((Graphics2D)g).setStroke(new BasicStroke(1));
-            g.fillOval(sx+85, sy+85, 50, 50);
-        } else {
-            g.setColor(new Color(80, 40, 10));
-            g.fillOval(-80, HEIGHT - 120 + handY, 180, 180);
-        }
-
-        Graphics2D g2 = (Graphics2D) g;
-        int swordX = WIDTH - 200;
-        int swordY = HEIGHT - 100 + handY;
-        
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        if (player.attackTimer > 0) {
-            double p = 1.0 - (player.attackTimer / 20.0);
-            if (player.currentAttack == Player.AttackType.SLASH) {
-                swordX -= (int)(Math.cos(p*Math.PI)*200) + 100;
-                g2.rotate(-0.5 + p*2.0, swordX+50, swordY+50);
-            } else if (player.currentAttack == Player.AttackType.STAB) {
-                swordY -= (int)(Math.sin(p*Math.PI)*150);
-                swordX -= 50;
-            } else {
-                g2.rotate(-Math.PI/2 + Math.sin(p*Math.PI)*2.5, swordX+50, swordY+50);
-                swordX -= (int)(Math.sin(p*Math.PI)*50);
-                swordY -= (int)(Math.sin(p*Math.PI)*50);
-            }
-        } else {
-            g2.rotate(-0.2, swordX, swordY);
-        }
-        
-        int[] bx = {swordX, swordX+25, swordX+25, swordX};
-        int[] by = {swordY, swordY, swordY-250, swordY-280};
-        g2.setPaint(new GradientPaint(swordX, swordY, Color.GRAY, swordX+20, swordY-300, Color.WHITE));
-        g2.fillPolygon(bx, by, 4);
-        g2.setColor(new Color(101, 67, 33));
-        g2.fillRect(swordX-5, swordY, 35, 15);
-        g2.fillRect(swordX+5, swordY+15, 15, 60);
-        g2.setTransform(new java.awt.geom.AffineTransform());
-
-        g.setColor(new Color(255, 255, 255, 128));
-        g.fillOval(WIDTH/2-3, HEIGHT/2-3, 6, 6);
-
-        g.setColor(Color.BLACK);
-        g.fillRect(160, 20, 304, 24);
-        g.setColor(new Color(180, 0, 0));
-        g.fillRect(162, 22, (int)((player.health/200.0)*300), 20);
-        g.setColor(Color.WHITE);
-        g.drawString("HEALTH: " + (int)player.health, 170, 37);
-
-        g.setColor(Color.BLACK);
-        g.fillRect(160, 50, 204, 14);
-        g.setColor(Color.YELLOW);
-        g.fillRect(162, 52, (int)(player.stamina * 2), 10);
-
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Serif", Font.BOLD, 30));
-        g.drawString("WAVE " + level.currentWave, WIDTH/2 - 50, 50);
-    }
-
+    // Callable from any thread; the cursor change itself happens on the EDT
     private void hideCursor(boolean hide) {
+        if (!SwingUtilities.isEventDispatchThread()) { SwingUtilities.invokeLater(() -> hideCursor(hide)); return; }
         if(hide) {
             BufferedImage cursorImg = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
             Cursor blankCursor = Toolkit.getDefaultToolkit().createCustomCursor(cursorImg, new Point(0, 0), "blank cursor");
@@ -485,9 +471,24 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
         }
     }
 
+    // Active rendering draws everything; a system repaint only means the menu must be redrawn
+    public void paint(Graphics g) { menuDirty = true; }
+
     // --- INPUT ---
+    // Buttons go straight into InputHandler's atomics; everything else is queued for the simulation thread
     public void mousePressed(MouseEvent e) {
-        int mx = e.getX(); int my = e.getY();
+        if (gameState == State.PLAYING) {
+            if(SwingUtilities.isLeftMouseButton(e)) input.press(InputHandler.ATTACK);
+            if(SwingUtilities.isRightMouseButton(e)) input.press(InputHandler.BLOCK);
+            return;
+        }
+        int mx = e.getX(), my = e.getY();
+        commands.add(() -> menuClick(mx, my));
+    }
+
+    // Simulation thread
+    private void menuClick(int mx, int my) {
+        menuDirty = true;
         int midX = WIDTH/2;
 
         if (gameState == State.MENU) {
@@ -507,13 +508,13 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
                     else if(WIDTH == 1280) { WIDTH = 1920; HEIGHT = 1080; }
                     else { WIDTH = 800; HEIGHT = 600; }
                     if(!isFullscreen) {
-                        setSize(WIDTH, HEIGHT);
-                        setLocationRelativeTo(null);
+                        int w = WIDTH, h = HEIGHT;
+                        SwingUtilities.invokeLater(() -> { setSize(w, h); setLocationRelativeTo(null); });
                     }
-                    initScreenBuffers();
+                    buffersStale = true;
                 }
                 if(my > 270 && my < 320) { // FULLSCREEN
-                    toggleFullscreen();
+                    SwingUtilities.invokeLater(this::toggleFullscreen);
                 }
             }
             if(mx > midX - 100 && mx < midX + 100 && my > 400 && my < 450) {
@@ -524,266 +525,2037 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
                 gameState = State.MENU;
                 hideCursor(false);
             }
-        } else if (gameState == State.PLAYING) {
-            if(SwingUtilities.isLeftMouseButton(e)) input.attack = true;
-            if(SwingUtilities.isRightMouseButton(e)) input.block = true;
         }
     }
     public void mouseReleased(MouseEvent e) {
         if (gameState == State.PLAYING) {
-            if(SwingUtilities.isLeftMouseButton(e)) input.attack = false;
-            if(SwingUtilities.isRightMouseButton(e)) input.block = false;
+            if(SwingUtilities.isLeftMouseButton(e)) input.release(InputHandler.ATTACK);
+            if(SwingUtilities.isRightMouseButton(e)) input.release(InputHandler.BLOCK);
         }
     }
-    public void mouseMoved(MouseEvent e) { input.mouseX = e.getX(); }
-    public void mouseDragged(MouseEvent e) { input.mouseX = e.getX(); }
+    public void mouseMoved(MouseEvent e) { input.mouseMoved(e.getX(), e.getY()); }
+    public void mouseDragged(MouseEvent e) { input.mouseMoved(e.getX(), e.getY()); }
     public void keyPressed(KeyEvent k) {
         int code = k.getKeyCode();
-        if(code == KeyEvent.VK_W) input.forward = true;
-        if(code == KeyEvent.VK_S) input.back = true;
-        if(code == KeyEvent.VK_A) input.strafeLeft = true;
-        if(code == KeyEvent.VK_D) input.strafeRight = true;
-        if(code == KeyEvent.VK_SPACE) input.attack = true;
-        if(code == KeyEvent.VK_SHIFT) input.block = true;
-        if(code == KeyEvent.VK_ESCAPE) {
-            if(gameState == State.PLAYING) {
-                gameState = State.MENU;
-                input.cursorLocked = false;
-                hideCursor(false);
-            }
+        int bit = InputHandler.keyBit(code);
+        if(bit != 0) input.press(bit);
+        if(code == KeyEvent.VK_F3) commands.add(() -> profiler.visible = !profiler.visible);
+        if(code == KeyEvent.VK_ESCAPE) commands.add(this::pause);
+    }
+
+    // Simulation thread
+    private void pause() {
+        menuDirty = true;
+        if(gameState == State.PLAYING) {
+            gameState = State.MENU;
+            input.cursorLocked = false;
+            hideCursor(false);
         }
     }
     public void keyReleased(KeyEvent k) {
-        int code = k.getKeyCode();
-        if(code == KeyEvent.VK_W) input.forward = false;
-        if(code == KeyEvent.VK_S) input.back = false;
-        if(code == KeyEvent.VK_A) input.strafeLeft = false;
-        if(code == KeyEvent.VK_D) input.strafeRight = false;
-        if(code == KeyEvent.VK_SPACE) input.attack = false;
-        if(code == KeyEvent.VK_SHIFT) input.block = false;
+        int bit = InputHandler.keyBit(k.getKeyCode());
+        if(bit != 0) input.release(bit);
     }
     public void keyTyped(KeyEvent e) {}
     public void mouseClicked(MouseEvent e) {}
     public void mouseEntered(MouseEvent e) {}
     public void mouseExited(MouseEvent e) {}
 
-    private class InputHandler {
+    // EDT handlers publish into atomics; the simulation thread takes one snapshot per tick with poll()
+    static class InputHandler {
+        static final int FORWARD=1, BACK=2, LEFT=4, RIGHT=8, ATTACK=16, BLOCK=32;
+
+        private final AtomicInteger held = new AtomicInteger();     // Buttons down right now
+        private final AtomicInteger pressed = new AtomicInteger();  // Pressed since the last poll, so taps between ticks still count
+        private final AtomicInteger dx = new AtomicInteger();       // Relative mouse motion since the last poll
+        private final AtomicLong firstEvent = new AtomicLong();     // nanoTime of the oldest unpolled event (0 = none)
+        // Position motion is measured from, packed with a pending-recentre flag so a warp lands atomically
+        private final AtomicLong anchor = new AtomicLong(NONE);
+        private static final long NONE = Long.MIN_VALUE, WARP = 1L << 48;
+        private static final int ECHO_SLOP = 2;                     // Pixels of rounding allowed in a warp's echo event
+        volatile int lastX = -1, lastY = -1;                        // Latest pointer position, for deciding when to recentre
+        public volatile boolean cursorLocked = false;
+
+        // Simulation thread snapshot
         public boolean forward, back, strafeLeft, strafeRight, attack, block;
-        public int mouseX = WIDTH / 2;
-        public boolean cursorLocked = false;
+        public int mouseDx;
+        // Event-to-tick latency of the last tick that saw input, and its running average; shown in the F3 overlay
+        public volatile long latencyNanos; public volatile double avgLatencyNanos;
+
+        static int keyBit(int code) {
+            switch(code) {
+                case KeyEvent.VK_W: return FORWARD;
+                case KeyEvent.VK_S: return BACK;
+                case KeyEvent.VK_A: return LEFT;
+                case KeyEvent.VK_D: return RIGHT;
+                case KeyEvent.VK_SPACE: return ATTACK;
+                case KeyEvent.VK_SHIFT: return BLOCK;
+                default: return 0;
+            }
+        }
+
+        void press(int bit) {
+            held.accumulateAndGet(bit, (v, b) -> v | b);
+            pressed.accumulateAndGet(bit, (v, b) -> v | b);
+            stamp();
+        }
+        void release(int bit) {
+            held.accumulateAndGet(~bit, (v, m) -> v & m);
+            stamp();
+        }
+        void mouseMoved(int x, int y) {
+            lastX = x; lastY = y;
+            long a;
+            do {
+                a = anchor.get();
+                if (a != NONE && (a & WARP) != 0 && Math.abs(x - anchorX(a)) <= ECHO_SLOP && Math.abs(y - anchorY(a)) <= ECHO_SLOP) {
+                    if (anchor.compareAndSet(a, pack(x, y, 0))) return; // The recentre's own echo, not motion
+                    continue;
+                }
+            } while (!anchor.compareAndSet(a, pack(x, y, a & WARP)));
+            if (a != NONE && x != anchorX(a)) { dx.addAndGet(x - anchorX(a)); stamp(); }
+        }
+        void clearMotion() { dx.set(0); anchor.set(NONE); } // Before a game starts
+        // Simulation thread: motion from here on is measured from the warp target, whether or not the echo arrives
+        void warpTo(int x, int y) { anchor.set(pack(x, y, WARP)); lastX = x; lastY = y; }
+        private static long pack(int x, int y, long flags) { return flags | (long)(y & 0xFFFFFF) << 24 | (x & 0xFFFFFF); }
+        private static int anchorX(long a) { return (int)(a << 40 >> 40); }
+        private static int anchorY(long a) { return (int)(a << 16 >> 40); }
+        private void stamp() { firstEvent.compareAndSet(0, System.nanoTime()); }
+
+        void poll() {
+            long t0 = firstEvent.getAndSet(0);
+            set(held.get() | pressed.getAndSet(0), dx.getAndSet(0));
+            if (t0 != 0) {
+                long ns = System.nanoTime() - t0;
+                latencyNanos = ns;
+                avgLatencyNanos = avgLatencyNanos == 0 ? ns : avgLatencyNanos * 0.95 + ns * 0.05;
+            }
+        }
+
+        // Snapshot as button bits, for recording and replay
+        int bits() {
+            return (forward ? FORWARD : 0) | (back ? BACK : 0) | (strafeLeft ? LEFT : 0) | (strafeRight ? RIGHT : 0)
+                | (attack ? ATTACK : 0) | (block ? BLOCK : 0);
+        }
+        void set(int bits, int mouseDx) {
+            forward = (bits & FORWARD) != 0; back = (bits & BACK) != 0;
+            strafeLeft = (bits & LEFT) != 0; strafeRight = (bits & RIGHT) != 0;
+            attack = (bits & ATTACK) != 0; block = (bits & BLOCK) != 0;
+            this.mouseDx = mouseDx;
+        }
     }
 
     // --- LOGIC CLASSES ---
 
-    private class CombatSystem {
+    static class CombatSystem {
         Player player;
         Level level;
         SoundEngine sound;
-        public CombatSystem(Player p, Level l, SoundEngine s) { this.player = p; this.level = l; this.sound = s; }
+        ParticleSystem particleSystem;
+        private final IntList nearby = new IntList(); // Reused grid query results
+        static final double REACH = 3.0, SEPARATION = 0.6;
+        public CombatSystem(Player p, Level l, SoundEngine s, ParticleSystem ps) { this.player = p; this.level = l; this.sound = s; this.particleSystem = ps; }
+        public boolean inAttackCone(int e) {
+            double dx = level.enemies.x[e] - player.camera.xPos;
+            double dy = level.enemies.y[e] - player.camera.yPos;
+            double dist = Math.sqrt(dx*dx + dy*dy);
+            return dist < REACH && (dx/dist)*player.camera.xDir + (dy/dist)*player.camera.yDir > 0.5;
+        }
         public void playerAttack() {
             boolean hit = false;
-            for(Enemy e : level.enemies) {
-                if(e.isDead) continue;
-                double dx = e.x - player.camera.xPos;
-                double dy = e.y - player.camera.yPos;
+            EnemyStore es = level.enemies;
+            level.grid.query(player.camera.xPos, player.camera.yPos, REACH, nearby);
+            for(int k=0; k<nearby.size; k++) {
+                int e = nearby.data[k];
+                if(es.dead[e]) continue;
+                double dx = es.x[e] - player.camera.xPos;
+                double dy = es.y[e] - player.camera.yPos;
                 double dist = Math.sqrt(dx*dx + dy*dy);
-                double dot = (dx/dist)*player.camera.xDir + (dy/dist)*player.camera.yDir;
                 
-                if(dist < 3.0 && dot > 0.5) {
+                if(inAttackCone(e)) {
                     hit = true;
                     double dmg = 35;
                     if(player.currentAttack == Player.AttackType.OVERHEAD) dmg=50;
                     
-                    double edx = Math.cos(e.angle); double edy = Math.sin(e.angle);
+                    double edx = Math.cos(es.angle[e]); double edy = Math.sin(es.angle[e]);
                     if((dx/dist)*edx + (dy/dist)*edy > 0.5) { sound.playCrit(); dmg*=2; }
                     else sound.playHit();
                     
-                    e.takeDamage(dmg);
-                    e.state = Enemy.State.STUNNED; e.stunTimer = 25; sound.playStun();
-                    e.x += (dx/dist)*1.2; e.y += (dy/dist)*1.2;
-                    for(int i=0;i<10;i++) particleSystem.spawnBlood(e.x,e.y,0);
+                    es.takeDamage(e, dmg);
+                    es.state[e] = EnemyStore.STUNNED; es.stunTimer[e] = 25; sound.playStun();
+                    es.x[e] += (dx/dist)*1.2; es.y[e] += (dy/dist)*1.2;
+                    level.grid.moved(es.id[e]);
+                    for(int i=0;i<10;i++) particleSystem.spawnBlood(es.x[e],es.y[e],0);
                 }
             }
             if(!hit) sound.playWoosh();
         }
-        public boolean updateEnemyAI(Enemy e) {
-            if(e.isDead) return false;
-            double dx = player.camera.xPos - e.x;
-            double dy = player.camera.yPos - e.y;
+        public boolean updateEnemyAI(int e) { return updateEnemyAI(e, 1); }
+
+        // steps > 1 when the scheduler skipped ticks: a chasing enemy covers the ground it missed in one move
+        public boolean updateEnemyAI(int e, int steps) {
+            EnemyStore es = level.enemies;
+            if(es.dead[e]) return false;
+            double dx = player.camera.xPos - es.x[e];
+            double dy = player.camera.yPos - es.y[e];
             double dist = Math.sqrt(dx*dx + dy*dy);
-            e.angle = Math.atan2(dy, dx);
+            double angle = es.angle[e] = Math.atan2(dy, dx);
             
-            switch(e.state) {
-                case IDLE: if(dist < 20) e.state = Enemy.State.CHASE; break;
-                case CHASE:
+            switch(es.state[e]) {
+                case EnemyStore.IDLE: if(dist < 20) es.state[e] = EnemyStore.CHASE; break;
+                case EnemyStore.CHASE:
                     if(dist > 2.0) {
-                        e.x += Math.cos(e.angle)*e.speed;
-                        e.y += Math.sin(e.angle)*e.speed;
+                        // Walk the flow field; keep facing the player so backstabs still read their facing
+                        double heading = level.flow.steer(es.x[e], es.y[e], player.camera.xPos, player.camera.yPos);
+                        if(heading != heading) heading = angle; // NaN: no path, or one tile out
+                        es.x[e] += Math.cos(heading)*es.speed[e]*steps;
+                        es.y[e] += Math.sin(heading)*es.speed[e]*steps;
+                        separate(e);
+                        level.grid.moved(es.id[e]);
                     } else {
-                        e.state = Enemy.State.WINDUP; e.attackTimer = 30;
+                        es.state[e] = EnemyStore.WINDUP; es.attackTimer[e] = 30;
                     }
                     break;
-                case WINDUP:
-                    if(--e.attackTimer <= 0) { e.state = Enemy.State.ATTACK; e.attackTimer = 10; sound.playGrunt(); }
+                case EnemyStore.WINDUP:
+                    if(--es.attackTimer[e] <= 0) { es.state[e] = EnemyStore.ATTACK; es.attackTimer[e] = 10; sound.playGrunt(); }
                     break;
-                case ATTACK:
-                    if(e.attackTimer == 5 && dist < 2.5) {
-                        if(player.isBlocking) { sound.playClang(); player.stamina-=10; e.state = Enemy.State.STUNNED; e.stunTimer=40; return false; }
+                case EnemyStore.ATTACK:
+                    if(es.attackTimer[e] == 5 && dist < 2.5) {
+                        if(player.isBlocking) { sound.playClang(); player.stamina-=10; es.state[e] = EnemyStore.STUNNED; es.stunTimer[e]=40; return false; }
                         else { player.health -= 10; sound.playHurt(); return true; }
                     }
-                    if(--e.attackTimer <= 0) { e.state = Enemy.State.COOLDOWN; e.stunTimer = 40; }
+                    if(--es.attackTimer[e] <= 0) { es.state[e] = EnemyStore.COOLDOWN; es.stunTimer[e] = 40; }
                     break;
-                case COOLDOWN:
-                    if(--e.stunTimer <= 0) e.state = Enemy.State.CHASE;
+                case EnemyStore.COOLDOWN:
+                    if(--es.stunTimer[e] <= 0) es.state[e] = EnemyStore.CHASE;
                     break;
-                case STUNNED:
-                    if(--e.stunTimer <= 0) e.state = Enemy.State.CHASE;
+                case EnemyStore.STUNNED:
+                    if(--es.stunTimer[e] <= 0) es.state[e] = EnemyStore.CHASE;
                     break;
             }
             return false;
         }
+        // Pushes a chasing enemy out of its live neighbours so crowds spread instead of stacking
+        private void separate(int e) {
+            EnemyStore es = level.enemies;
+            double ex = es.x[e], ey = es.y[e];
+            double px = 0, py = 0;
+            level.grid.query(ex, ey, SEPARATION, nearby);
+            for(int k=0; k<nearby.size; k++) {
+                int o = nearby.data[k];
+                if(o == e || es.dead[o]) continue;
+                double dx = ex - es.x[o], dy = ey - es.y[o];
+                double d2 = dx*dx + dy*dy;
+                if(d2 >= SEPARATION*SEPARATION || d2 == 0) continue;
+                double d = Math.sqrt(d2);
+                px += dx/d * (SEPARATION - d) * 0.5;
+                py += dy/d * (SEPARATION - d) * 0.5;
+            }
+            if(px != 0 && !level.isWall(ex + px, ey)) es.x[e] = ex += px;
+            if(py != 0 && !level.isWall(ex, ey + py)) es.y[e] = ey + py;
+        }
     }
 
-    private static class Player {
-        enum AttackType { SLASH, STAB, OVERHEAD }
-        AttackType currentAttack = AttackType.SLASH;
-        double health = 200; 
-        double stamina = 100, maxStamina = 100;
-        boolean isBlocking = false;
-        int attackTimer = 0, trapTimer = 0;
-        double headBob = 0;
-        Camera camera;
-        public Player(Camera c) { this.camera = c; }
-    }
+    // One arena session with no window attached: everything updateGame advances, so a recorded session can be
+    // re-run headless. All of its randomness comes from rng, so the seed plus the per-tick input decide the run
+    static class Simulation {
+        static final int RUNNING = 0, DIED = 1, WON = 2;
+        final long seed;
+        final Random rng;
+        final Level level;
+        final Camera camera;
+        final Player player;
+        final ParticleSystem particles;
+        final CombatSystem combat;
+        final AIScheduler ai;
+        final SoundEngine sound;
+        int damageFlashTimer = 0;
+        double damageShake = 0; // Camera shake intensity
+        int ticks;
+        // Session statistics for batch runs
+        static final int WAVES = 5;
+        int kills;
+        final int[] clearedAt = new int[WAVES + 1];        // Tick each wave was cleared, by wave number
+        final double[] damageTaken = new double[WAVES + 1]; // Player damage while each wave was up
 
-    private static class Sprite { double x, y; int textureId; double angle; }
-    private static class Enemy extends Sprite {
-        enum State { IDLE, CHASE, WINDUP, ATTACK, COOLDOWN, STUNNED, DEATH }
-        State state = State.IDLE;
-        double hp = 100, speed = 0.04;
-        int attackTimer, stunTimer, deathTimer;
-        boolean isDead = false;
-        public Enemy(double x, double y) { this.x=x; this.y=y; this.textureId=4; }
-        public void takeDamage(double d) { hp-=d; if(hp<=0 && !isDead) { isDead=true; textureId=6; deathTimer=100; }}
-    }
+        Simulation(long seed, SoundEngine sound) { this(seed, sound, null); }
 
-    private static class Level {
-        int w, h;
-        int[][] map; 
-        List<Enemy> enemies = new ArrayList<>();
-        Sprite emperor;
-        int currentWave = 1;
-        
-        public Level(int w, int h) {
-            this.w = w; this.h = h;
-            map = new int[w][h];
-            generateMap();
-            emperor = new Sprite(); emperor.x = w/2.0; emperor.y = 1.5; emperor.textureId = 3;
-            spawnWave(3);
-        }
-        
-        public boolean isWall(double x, double y) {
-            if(x<0 || x>=w || y<0 || y>=h) return true;
-            return map[(int)x][(int)y] == 1;
+        // arena null: the generated 128x128 ellipse
+        Simulation(long seed, SoundEngine sound, TileMap arena) {
+            this.seed = seed;
+            this.sound = sound;
+            level = arena != null ? new Level(arena, seed) : new Level(128, 128, seed);
+            level.sealed = true; // Render reads the tiles through snapshots without locking
+            rng = level.rng;
+            camera = new Camera(level.w/2 + 0.5, level.h/2 + 0.5, 1, 0, 0.66);
+            player = new Player(camera);
+            particles = new ParticleSystem(rng);
+            combat = new CombatSystem(player, level, sound, particles);
+            ai = new AIScheduler(combat);
         }
 
-        private void generateMap() {
-            int cx = w/2, cy = h/2;
-            for(int x=0; x<w; x++) {
-                for(int y=0; y<h; y++) {
-                    double dx = x-cx; double dy = y-cy;
-                    double val = (dx*dx)/(40.0*40.0) + (dy*dy)/(25.0*25.0);
-                    
-                    if(val >= 1.0) map[x][y] = 1; // Wall
-                    else {
-                        // Random Spikes inside
-                        if(Math.random() < 0.02 && val < 0.8) map[x][y] = 2; // Spike Trap
-                        else map[x][y] = 0; // Floor
+        // Advances one 60 Hz tick using the input snapshot; returns RUNNING, DIED or WON
+        int tick(InputHandler input) {
+            ticks++;
+            double hpBefore = player.health;
+            double moveSpeed = 0.08; // Slightly faster movement
+
+            if (player.stamina < player.maxStamina) player.stamina += 0.2;
+
+            if (input.block && player.stamina > 0) {
+                player.isBlocking = true;
+                moveSpeed *= 0.5; 
+                player.stamina -= 0.3;
+            } else {
+                player.isBlocking = false;
+            }
+
+            // Mouse Look
+            if (input.mouseDx != 0) camera.rotate(input.mouseDx * 0.0015);
+
+            // STANDARD MOVEMENT (Fixed: No Inversion)
+            double dx = 0, dy = 0;
+            if (input.forward) { dx += camera.xDir; dy += camera.yDir; }
+            if (input.back) { dx -= camera.xDir; dy -= camera.yDir; }
+
+            // Strafe Left: -Y, X
+            if (input.strafeLeft) { 
+                dx -= camera.yDir * 0.8; 
+                dy += camera.xDir * 0.8; 
+            } 
+            // Strafe Right: Y, -X
+            if (input.strafeRight) { 
+                dx += camera.yDir * 0.8; 
+                dy -= camera.xDir * 0.8; 
+            }
+
+            if (dx != 0 || dy != 0) {
+                player.headBob += 0.15;
+                double destX = camera.xPos + dx * moveSpeed;
+                double destY = camera.yPos + dy * moveSpeed;
+
+                if(!level.isWall(destX + 0.3, camera.yPos)) camera.xPos = destX;
+                if(!level.isWall(camera.xPos, destY + 0.3)) camera.yPos = destY;
+
+                // TRAP CHECK
+                int mapX = (int)camera.xPos;
+                int mapY = (int)camera.yPos;
+                if (level.tile(mapX, mapY) == 2) { 
+                    if (player.trapTimer == 0) {
+                        player.health -= 15;
+                        damageFlashTimer = 10;
+                        damageShake = 15.0; // Violent shake
+                        sound.playTrap();
+                        player.trapTimer = 40; 
                     }
                 }
+            } else {
+                player.headBob = 0;
+            }
+
+            if (player.trapTimer > 0) player.trapTimer--;
+
+            // Camera Shake Decay
+            if (damageShake > 0) damageShake *= 0.9;
+
+            // Combat
+            if (input.attack && player.attackTimer == 0 && player.stamina > 15 && !player.isBlocking) {
+                player.attackTimer = 20;
+                player.stamina -= 15;
+                double r = rng.nextDouble();
+                if (r < 0.33) player.currentAttack = Player.AttackType.SLASH;
+                else if (r < 0.66) player.currentAttack = Player.AttackType.STAB;
+                else player.currentAttack = Player.AttackType.OVERHEAD;
+
+                sound.playWoosh();
+                combat.playerAttack();
+            }
+
+            if (player.attackTimer > 0) player.attackTimer--;
+            if (damageFlashTimer > 0) damageFlashTimer--;
+
+            boolean enemiesAlive = false;
+            EnemyStore es = level.enemies;
+            ai.beginTick(ticks);
+            for (int i = 0; i < es.count;) {
+                if(!es.dead[i]) enemiesAlive = true;
+
+                boolean hitPlayer = ai.think(i, ticks);
+                if(hitPlayer) {
+                    damageFlashTimer = 10;
+                    damageShake = 10.0; // Hit shake
+                }
+
+                if (es.dead[i]) {
+                    if (es.deathTimer[i] > 0) es.deathTimer[i]--;
+                    else { level.removeEnemy(i); kills++; continue; } // The last enemy was swapped into i; visit it next
+                }
+                i++;
+            }
+
+            particles.update();
+
+            int outcome = RUNNING;
+            if (player.health < hpBefore) damageTaken[Math.min(level.currentWave, WAVES)] += hpBefore - player.health;
+            if (player.health <= 0) {
+                outcome = DIED;
+                sound.playDeath();
+            }
+
+            if (!enemiesAlive && level.enemies.count == 0) {
+                clearedAt[Math.min(level.currentWave, WAVES)] = ticks;
+                level.currentWave++;
+                if(level.currentWave > WAVES) {
+                    outcome = WON;
+                } else {
+                    level.spawnWave(level.currentWave + 2);
+                    sound.playHorn();
+                }
             }
+            return outcome;
         }
-        
-        public void spawnWave(int count) {
-            for(int i=0; i<count; i++) {
-                double a = Math.random() * Math.PI * 2;
-                double d = 10 + Math.random() * 15;
-                double ex = w/2.0 + Math.cos(a)*d;
-                double ey = h/2.0 + Math.sin(a)*d*0.6;
-                if(!isWall(ex, ey) && map[(int)ex][(int)ey] != 2) enemies.add(new Enemy(ex, ey));
+
+        // Hash of the state a replay must reproduce exactly
+        long checksum() {
+            long h = seed;
+            h = h*31 + Double.doubleToLongBits(camera.xPos); h = h*31 + Double.doubleToLongBits(camera.yPos);
+            h = h*31 + Double.doubleToLongBits(camera.xDir); h = h*31 + Double.doubleToLongBits(player.health);
+            h = h*31 + Double.doubleToLongBits(player.stamina); h = h*31 + level.currentWave;
+            EnemyStore es = level.enemies;
+            for (int i=0; i<es.count; i++) {
+                h = h*31 + Double.doubleToLongBits(es.x[i]); h = h*31 + Double.doubleToLongBits(es.y[i]);
+                h = h*31 + Double.doubleToLongBits(es.hp[i]);
             }
+            return h*31 + particles.count;
         }
     }
 
-    private static class Camera {
-        double xPos, yPos, xDir, yDir, xPlane, yPlane;
-        public Camera(double x, double y, double xd, double yd, double xp) {
-            xPos=x; yPos=y; xDir=xd; yDir=yd; xPlane=0; yPlane=xp;
-        }
-        public void rotate(double a) {
-            double oldX = xDir;
-            xDir = xDir * Math.cos(a) - yDir * Math.sin(a);
-            yDir = oldX * Math.sin(a) + yDir * Math.cos(a);
-            double oldP = xPlane;
-            xPlane = xPlane * Math.cos(a) - yPlane * Math.sin(a);
-            yPlane = oldP * Math.sin(a) + yPlane * Math.cos(a);
+    // What render needs from one tick, copied on the simulation thread so the render thread never touches live
+    // session state. Instances cycle through a SnapshotBuffer and are refilled in place, so publishing a tick
+    // allocates nothing once the batches have grown
+    static class Snapshot {
+        final Camera camera = new Camera(0, 0, 1, 0, 0.66); // Previous and current pose, blended by render
+        final Player player = new Player(camera);           // Bars, swing, block and head bob for the HUD
+        Level level;   // Walls and floor only: a session never edits its tiles while it runs
+        int wave, damageFlashTimer;
+        double shake;  // Screen shake offset in window pixels, drawn from the session's fx stream
+        long tickNs;   // nanoTime when published; render interpolates from here
+        final SpriteBatch sprites = new SpriteBatch(); // Enemies, emperor and particles in submission order
+        final SpriteBatch dots = new SpriteBatch();    // Minimap enemies
+        private final IntList nearby = new IntList();
+
+        void capture(Simulation sim, Random fxRng) {
+            camera.set(sim.camera);
+            Player p = sim.player;
+            player.health = p.health; player.stamina = p.stamina; player.isBlocking = p.isBlocking;
+            player.attackTimer = p.attackTimer; player.currentAttack = p.currentAttack; player.headBob = p.headBob;
+            level = sim.level;
+            wave = level.currentWave;
+            damageFlashTimer = sim.damageFlashTimer;
+            shake = (fxRng.nextDouble() - 0.5) * sim.damageShake;
+            sprites.clear();
+            level.submitSprites(sprites);
+            sim.particles.submitSprites(sprites);
+            HudLayers.collectDots(level, sim.camera, nearby, dots);
+            tickNs = System.nanoTime();
         }
     }
 
-    // --- RENDERING ---
-    private static class TextureManager {
-        static List<Texture> textures = new ArrayList<>();
-        public static void init() {
-            textures.add(Texture.genWall()); // 0: Crowd
-            textures.add(Texture.genGate()); // 1: Gate
-            textures.add(Texture.genFloor(0xD2B48C)); // 2: Sand
-            textures.add(Texture.genSprite(0x800080)); // 3: Emperor
-            textures.add(Texture.genGlad(false, false)); // 4: Idle
-            textures.add(Texture.genGlad(true, false)); // 5: Atk
-            textures.add(Texture.genBlood()); // 6: Dead
-            textures.add(Texture.genGlad(false, true)); // 7: Stun
-            textures.add(Texture.genFloor(0x333333)); // 8: SPIKE (Dark Grey, Better Texture)
+    // Lock-free triple buffer between one producer and one consumer. The simulation fills back() and publishes it;
+    // render takes the newest published snapshot and keeps drawing it until a newer one lands. Neither side ever
+    // waits, and the swap through the atomic makes the producer's writes visible to the consumer
+    static class SnapshotBuffer {
+        private static final int FRESH = 4; // Set on the middle index when it holds a snapshot render has not taken
+        private final Snapshot[] slots = {new Snapshot(), new Snapshot(), new Snapshot()};
+        private final AtomicInteger middle = new AtomicInteger(1);
+        private int back = 0;  // Simulation thread only
+        private int front = 2; // Render thread only
+
+        Snapshot back() { return slots[back]; }
+        void publish() { back = middle.getAndSet(back | FRESH) & 3; }
+
+        Snapshot latest() {
+            if ((middle.get() & FRESH) != 0) front = middle.getAndSet(front) & 3;
+            return slots[front];
         }
     }
-    
-    private static class Texture {
-        int[] pixels; int size=64;
-        public Texture() { pixels = new int[64*64]; }
-        
-        static Texture genWall() {
-            Texture t = new Texture();
-            for(int i=0; i<4096; i++) {
-                int y = i/64;
-                int col = 0xCEC8B4;
-                if(y%6==0) col = 0x9A8B7C;
-                if(y%6>2 && (i%64 + (y%6)*13)%4!=0) {
-                    double r=Math.random();
-                    if(r>0.75) col=0xFFCCCC; else if(r>0.5) col=0xEEEEFF;
-                    else if(r>0.25) col=0xEEDDCC; else col=0xAA9988;
-                }
-                t.pixels[i] = col;
+
+    // Chooses which enemies think this tick. Enemies winding up, attacking, cooling down or stunned run every tick so
+    // their timers stay exact, as does anything within NEAR tiles. Chasing and idle enemies further out are staggered
+    // (every 2nd tick within MID, every 4th beyond, every 8th if idle there) and catch up on movement when they run.
+    // Staggered updates draw on a per-tick budget; once a tick overruns it, staggered periods stretch (up to 4x)
+    // until demand fits again, and whatever still overflows waits for a later tick. The budget goes round the slots
+    // from where the last tick's ran out, so every due enemy runs within due/budget ticks and then moves for all the
+    // ticks it waited. Huge waves slow the far crowd down rather than the frame. The budget counts updates, not nanoseconds, so replays stay exact; the ai/
+    // benches give the cost per update to size it
+    static class AIScheduler {
+        static final double NEAR = 8, MID = 20;
+        static final int MAX_STRETCH = 4;
+        static final int DEFAULT_BUDGET = Integer.getInteger("gladiator.aiBudget", 256); // Staggered updates per tick
+        final CombatSystem combat;
+        int budget = DEFAULT_BUDGET;
+        int stretch = 1;
+        int left, updates, deferred; // This tick
+        int from, to = -1; // This tick's window of slots that may spend the budget, [from, to) wrapping; to < 0 is all
+
+        AIScheduler(CombatSystem combat) { this.combat = combat; }
+
+        void beginTick(int tick) {
+            if (deferred > 0) stretch = Math.min(stretch*2, MAX_STRETCH);
+            else if (budget - left < budget/4 && stretch > 1) stretch /= 2;
+            left = budget; updates = deferred = 0;
+
+            // Start where the last window ended and stop at the first due slot the budget can't cover
+            EnemyStore es = combat.level.enemies;
+            int n = es.count;
+            if (to < 0 || to >= n) to = 0;
+            from = to; to = -1;
+            for (int k=0, e=from, due=0; k<n; k++, e = e+1 < n ? e+1 : 0) {
+                if (es.dead[e]) continue;
+                int period = period(e);
+                if (period > 1 && tick - last(e, tick, period) >= period && ++due > budget) { to = e; break; }
             }
-            return t;
         }
-        static Texture genGate() {
-            Texture t = new Texture();
-            for(int i=0;i<4096;i++) t.pixels[i] = ((i%64)%8==0 || (i/64)%16==0) ? 0x222222 : 0x111111;
-            return t;
+
+        boolean inWindow(int e) {
+            if (to < 0) return true;
+            return from < to ? e >= from && e < to : e >= from || e < to;
         }
-        static Texture genFloor(int c) {
-            Texture t = new Texture();
-            for(int i=0;i<4096;i++) {
-                int n = (int)(Math.random()*20);
-                int r=(c>>16)&0xFF; int g=(c>>8)&0xFF; int b=c&0xFF;
-                t.pixels[i] = ((r-n)<<16)|((g-n)<<8)|(b-n);
+
+        // Tick of slot e's last update; a new wave's first updates are spread over its period
+        int last(int e, int tick, int period) {
+            EnemyStore es = combat.level.enemies;
+            return es.lastThink[e] != EnemyStore.NEVER ? es.lastThink[e] : tick - 1 - (es.id[e] & (period-1));
+        }
+
+        // Runs slot e's AI if it is due; true when it hit the player
+        boolean think(int e, int tick) {
+            EnemyStore es = combat.level.enemies;
+            if (es.dead[e]) return false;
+            int period = period(e);
+            int last = es.lastThink[e] = last(e, tick, period); // Keep a new enemy's spread start, or it is never due
+            int elapsed = tick - last;
+            if (period > 1) {
+                if (elapsed < period) return false;
+                if (left <= 0 || !inWindow(e)) { deferred++; return false; }
+                left--;
             }
-            return t;
+            es.lastThink[e] = tick;
+            updates++;
+            return combat.updateEnemyAI(e, elapsed);
         }
-        static Texture genSprite(int c) {
-            Texture t = new Texture();
-            for(int i=0;i<4096;i++) t.pixels[i] = -1;
-            for(int y=10;y<54;y++) for(int x=20;x<44;x++) t.pixels[x+y*64]=c;
-            return t;
+
+        int period(int e) {
+            EnemyStore es = combat.level.enemies;
+            byte st = es.state[e];
+            if (st != EnemyStore.CHASE && st != EnemyStore.IDLE) return 1;
+            double dx = es.x[e] - combat.player.camera.xPos, dy = es.y[e] - combat.player.camera.yPos, d2 = dx*dx + dy*dy;
+            if (d2 < NEAR*NEAR) return 1;
+            if (d2 < MID*MID) return 2*stretch;
+            return (st == EnemyStore.IDLE ? 8 : 4)*stretch;
+        }
+    }
+
+    static class Player {
+        enum AttackType { SLASH, STAB, OVERHEAD }
+        AttackType currentAttack = AttackType.SLASH;
+        double health = 200; 
+        double stamina = 100, maxStamina = 100;
+        boolean isBlocking = false;
+        int attackTimer = 0, trapTimer = 0;
+        double headBob = 0;
+        Camera camera;
+        public Player(Camera c) { this.camera = c; }
+    }
+
+    private static class Sprite { double x, y; int textureId; double angle; }
+
+    // Enemies as parallel primitive arrays, dense in slots [0, count). Removal swaps the last enemy
+    // into the hole; ids are stable across swaps and recycled through a free list.
+    static class EnemyStore {
+        static final byte IDLE=0, CHASE=1, WINDUP=2, ATTACK=3, COOLDOWN=4, STUNNED=5;
+        static final int NEVER = Integer.MIN_VALUE;
+
+        int count;
+        double[] x, y, angle, hp, speed;
+        int[] attackTimer, stunTimer, deathTimer;
+        int[] lastThink;    // Tick of the last AI update (NEVER until the scheduler first sees it)
+        byte[] state;
+        boolean[] dead;
+        int[] id;           // slot -> id
+        int[] slotOf;       // id -> slot, -1 while the id is free
+        private int[] freeIds; private int freeCount, idCount;
+
+        EnemyStore(int capacity) {
+            capacity = Math.max(8, capacity);
+            x = new double[capacity]; y = new double[capacity]; angle = new double[capacity];
+            hp = new double[capacity]; speed = new double[capacity];
+            attackTimer = new int[capacity]; stunTimer = new int[capacity]; deathTimer = new int[capacity]; lastThink = new int[capacity];
+            state = new byte[capacity]; dead = new boolean[capacity];
+            id = new int[capacity]; slotOf = new int[capacity]; freeIds = new int[capacity];
+        }
+
+        // Returns the new enemy's id
+        int add(double ex, double ey) {
+            if (count == x.length) grow(count * 2);
+            int i = count++;
+            int eid = freeCount > 0 ? freeIds[--freeCount] : idCount++;
+            x[i]=ex; y[i]=ey; angle[i]=0; hp[i]=100; speed[i]=0.04;
+            attackTimer[i]=0; stunTimer[i]=0; deathTimer[i]=0; lastThink[i]=NEVER;
+            state[i]=IDLE; dead[i]=false;
+            id[i]=eid; slotOf[eid]=i;
+            return eid;
+        }
+
+        void remove(int i) {
+            int eid = id[i], last = --count;
+            if (i != last) {
+                x[i]=x[last]; y[i]=y[last]; angle[i]=angle[last]; hp[i]=hp[last]; speed[i]=speed[last];
+                attackTimer[i]=attackTimer[last]; stunTimer[i]=stunTimer[last]; deathTimer[i]=deathTimer[last]; lastThink[i]=lastThink[last];
+                state[i]=state[last]; dead[i]=dead[last];
+                id[i]=id[last]; slotOf[id[i]]=i;
+            }
+            slotOf[eid] = -1;
+            freeIds[freeCount++] = eid;
+        }
+
+        void takeDamage(int i, double d) { hp[i]-=d; if(hp[i]<=0 && !dead[i]) { dead[i]=true; deathTimer[i]=100; } }
+
+        int textureId(int i) {
+            if(dead[i]) return 6;
+            if(state[i]==STUNNED) return 7;
+            if(state[i]==ATTACK) return 5;
+            return 4;
+        }
+
+        private void grow(int n) {
+            x = Arrays.copyOf(x, n); y = Arrays.copyOf(y, n); angle = Arrays.copyOf(angle, n);
+            hp = Arrays.copyOf(hp, n); speed = Arrays.copyOf(speed, n);
+            attackTimer = Arrays.copyOf(attackTimer, n); stunTimer = Arrays.copyOf(stunTimer, n);
+            deathTimer = Arrays.copyOf(deathTimer, n); lastThink = Arrays.copyOf(lastThink, n);
+            state = Arrays.copyOf(state, n); dead = Arrays.copyOf(dead, n);
+            id = Arrays.copyOf(id, n); slotOf = Arrays.copyOf(slotOf, n); freeIds = Arrays.copyOf(freeIds, n);
+        }
+    }
+
+    // Cached HUD pieces. Each layer is a managed image redrawn only when what it shows changes (the minimap when the
+    // player crosses a tile or the map is edited, labels when their number changes). Plain opaque fills (hand, bar
+    // frames) stay direct draws: a translucent blit of the same area costs more than the fill on the software pipeline
+    static class HudLayers {
+        static final Color GOLD = new Color(212, 175, 55), SHADE = new Color(0, 0, 0, 180), FLASH = new Color(255, 0, 0, 100);
+        static final Color WOOD = new Color(60, 40, 20), HAND = new Color(80, 40, 10), HILT = new Color(101, 67, 33);
+        static final Color CROSSHAIR = new Color(255, 255, 255, 128), BLOOD = new Color(180, 0, 0);
+        static final Color MENU_BG = new Color(20, 10, 10), BUTTON = new Color(50, 30, 20);
+        static final Font TITLE_FONT = new Font("Serif", Font.BOLD, 50), BUTTON_FONT = new Font("SansSerif", Font.PLAIN, 30);
+        static final Font LABEL_FONT = new Font("Dialog", Font.PLAIN, 12), WAVE_FONT = new Font("Serif", Font.BOLD, 30);
+        static final BasicStroke RING = new BasicStroke(3), RIM = new BasicStroke(5), THIN = new BasicStroke(1);
+        // Sword in its own frame: origin at the hilt, blade pointing up
+        static final int[] BLADE_X = {0, 25, 25, 0}, BLADE_Y = {0, 0, -250, -280};
+        static final GradientPaint BLADE = new GradientPaint(0, 0, Color.GRAY, 20, -300, Color.WHITE);
+        static final int SWORD_PX = 60, SWORD_PY = 280; // Hilt position inside the idle sword image (tilted blade bounds plus AA)
+        static final int MAP_X = 20, MAP_Y = 20, MAP_SIZE = 130, MAP_RANGE = 20;
+        static final double MAP_SCALE = 1.5 * 4; // Pixels per tile
+
+        private final Ellipse2D.Float mapClip = new Ellipse2D.Float(0, 0, MAP_SIZE, MAP_SIZE);
+        private BufferedImage map, shield, idleSword, healthLabel, waveLabel;
+        private int mapVersion, mapX, mapY, health = -1, wave = -1;
+        private Level mapLevel;
+        int rebuilds; // Layer redraws so far, for the bench
+
+        void drawHUD(Graphics2D g, Player player, int currentWave, int width, int height, double bobOffset) {
+            int handY = (int)(bobOffset);
+            if (player.isBlocking) {
+                if (shield == null) shield = shieldLayer();
+                g.drawImage(shield, 200 - 3, height - 280 + handY - 3, null);
+            } else {
+                g.setColor(HAND);
+                g.fillOval(-80, height - 120 + handY, 180, 180);
+            }
+
+            int swordX = width - 200;
+            int swordY = height - 100 + handY;
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            if (player.attackTimer > 0) {
+                double p = 1.0 - (player.attackTimer / 20.0), angle = 0;
+                int px = swordX + 50, py = swordY + 50;
+                if (player.currentAttack == Player.AttackType.SLASH) {
+                    swordX -= (int)(Math.cos(p*Math.PI)*200) + 100;
+                    px = swordX + 50; py = swordY + 50;
+                    angle = -0.5 + p*2.0;
+                } else if (player.currentAttack == Player.AttackType.STAB) {
+                    swordY -= (int)(Math.sin(p*Math.PI)*150);
+                    swordX -= 50;
+                } else {
+                    angle = -Math.PI/2 + Math.sin(p*Math.PI)*2.5;
+                    swordX -= (int)(Math.sin(p*Math.PI)*50);
+                    swordY -= (int)(Math.sin(p*Math.PI)*50);
+                }
+                g.rotate(angle, px, py);
+                g.translate(swordX, swordY);
+                drawSword(g);
+                g.translate(-swordX, -swordY);
+                g.rotate(-angle, px, py);
+            } else {
+                if (idleSword == null) idleSword = idleSwordLayer();
+                g.drawImage(idleSword, swordX - SWORD_PX, swordY - SWORD_PY, null);
+            }
+
+            g.setColor(CROSSHAIR);
+            g.fillOval(width/2-3, height/2-3, 6, 6);
+
+            g.setColor(Color.BLACK);
+            g.fillRect(160, 20, 304, 24);
+            g.fillRect(160, 50, 204, 14);
+            g.setColor(BLOOD);
+            g.fillRect(162, 22, (int)((player.health/200.0)*300), 20);
+            g.setColor(Color.YELLOW);
+            g.fillRect(162, 52, (int)(player.stamina * 2), 10);
+
+            if (healthLabel == null || health != (int)player.health) {
+                health = (int)player.health;
+                healthLabel = label("HEALTH: " + health, LABEL_FONT);
+            }
+            g.drawImage(healthLabel, 170, 37 - LABEL_FONT.getSize()*3/2, null);
+            if (waveLabel == null || wave != currentWave) {
+                wave = currentWave;
+                waveLabel = label("WAVE " + wave, WAVE_FONT);
+            }
+            g.drawImage(waveLabel, width/2 - 50, 50 - WAVE_FONT.getSize()*3/2, null);
+        }
+
+        // Live enemies within minimap range of the camera, gathered on the simulation side
+        static void collectDots(Level level, Camera camera, IntList nearby, SpriteBatch dots) {
+            EnemyStore es = level.enemies;
+            dots.clear();
+            level.grid.query(camera.xPos, camera.yPos, (MAP_SIZE/2) / MAP_SCALE, nearby);
+            for (int k=0; k<nearby.size; k++) {
+                int e = nearby.data[k];
+                if (!es.dead[e]) dots.add(es.x[e], es.y[e], 0);
+            }
+        }
+
+        void drawMinimap(Graphics2D g, Camera camera, Level level, SpriteBatch dots) {
+            int tx = (int)camera.xPos, ty = (int)camera.yPos;
+            if (map == null || level != mapLevel || level.version != mapVersion || tx != mapX || ty != mapY) {
+                mapLevel = level; mapVersion = level.version; mapX = tx; mapY = ty;
+                map = mapLayer(level, tx, ty);
+            }
+            g.drawImage(map, MAP_X, MAP_Y, null);
+
+            int cx = MAP_X + MAP_SIZE/2, cy = MAP_Y + MAP_SIZE/2;
+            int r = MAP_SIZE/2 - 2; // Dots centred inside this stay within the ring
+            g.setColor(Color.RED);
+            for (int k=0; k<dots.count; k++) {
+                int dx = (int)((dots.x[k] - camera.xPos) * MAP_SCALE);
+                int dy = (int)((dots.y[k] - camera.yPos) * MAP_SCALE);
+                if (dx*dx + dy*dy < r*r) g.fillOval(cx + dx - 3, cy + dy - 3, 6, 6);
+            }
+
+            g.setColor(Color.GREEN);
+            g.fillOval(cx-3, cy-3, 6, 6);
+            g.drawLine(cx, cy, cx + (int)(camera.xDir*15), cy + (int)(camera.yDir*15));
+
+            g.setColor(GOLD);
+            g.setStroke(RING);
+            g.drawOval(MAP_X, MAP_Y, MAP_SIZE, MAP_SIZE);
+            g.setStroke(THIN);
+        }
+
+        static void drawSword(Graphics2D g) {
+            g.setPaint(BLADE);
+            g.fillPolygon(BLADE_X, BLADE_Y, 4);
+            g.setColor(HILT);
+            g.fillRect(-5, 0, 35, 15);
+            g.fillRect(5, 15, 15, 60);
+        }
+
+        // Shaded disc with the spikes in the window around tile (tx, ty)
+        private BufferedImage mapLayer(Level level, int tx, int ty) {
+            BufferedImage img = map != null ? map : layer(MAP_SIZE, MAP_SIZE);
+            Graphics2D g = img.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, MAP_SIZE, MAP_SIZE);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setClip(mapClip);
+            g.setColor(SHADE);
+            g.fillRect(0, 0, MAP_SIZE, MAP_SIZE);
+            g.setColor(Color.DARK_GRAY);
+            int c = MAP_SIZE/2;
+            for (int i=-MAP_RANGE; i<MAP_RANGE; i++) {
+                for (int j=-MAP_RANGE; j<MAP_RANGE; j++) {
+                    int mx = tx + i, my = ty + j;
+                    if (mx>=0 && mx<level.w && my>=0 && my<level.h && level.tile(mx, my) == 2)
+                        g.fillRect(c + (int)(i * MAP_SCALE) - 2, c + (int)(j * MAP_SCALE) - 2, 4, 4);
+                }
+            }
+            g.dispose();
+            rebuilds++;
+            return img;
+        }
+
+        private BufferedImage shieldLayer() {
+            BufferedImage img = layer(226, 226);
+            Graphics2D g = img.createGraphics();
+            g.translate(3, 3);
+            g.setColor(WOOD);
+            g.fillOval(0, 0, 220, 220);
+            g.setColor(Color.LIGHT_GRAY);
+            g.setStroke(RIM);
+            g.drawOval(0, 0, 220, 220);
+            g.setStroke(THIN);
+            g.fillOval(85, 85, 50, 50);
+            g.dispose();
+            rebuilds++;
+            return img;
+        }
+
+        private BufferedImage idleSwordLayer() {
+            BufferedImage img = layer(SWORD_PX + 40, SWORD_PY + 78);
+            Graphics2D g = img.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.rotate(-0.2, SWORD_PX, SWORD_PY);
+            g.translate(SWORD_PX, SWORD_PY);
+            drawSword(g);
+            g.dispose();
+            rebuilds++;
+            return img;
+        }
+
+        // White text with its baseline 3/2 of the font size below the top edge
+        private BufferedImage label(String text, Font font) {
+            BufferedImage img = layer(measure(text, font) + 4, font.getSize()*2);
+            Graphics2D g = img.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setFont(font);
+            g.setColor(Color.WHITE);
+            g.drawString(text, 0, font.getSize()*3/2);
+            g.dispose();
+            rebuilds++;
+            return img;
+        }
+
+        private int measure(String text, Font font) {
+            Graphics2D g = layer(1, 1).createGraphics();
+            int w = g.getFontMetrics(font).stringWidth(text);
+            g.dispose();
+            return Math.max(1, w);
+        }
+
+        // Translucent image in the screen's pixel format where there is one, so Java2D can cache it in VRAM
+        private static BufferedImage layer(int w, int h) {
+            if (!GraphicsEnvironment.isHeadless()) {
+                GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+                return gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+            }
+            return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+    }
+
+    // Growable int list for allocation-free query results
+    static class IntList {
+        int[] data = new int[64]; int size;
+        void clear() { size = 0; }
+        void add(int v) { if(size == data.length) data = Arrays.copyOf(data, size*2); data[size++] = v; }
+    }
+
+    // Tile types at a byte per tile in 32x32 chunks. A chunk is either uniform (one value, no storage), a slice
+    // of a memory-mapped map file, or a heap array once written. Mapped chunks are read straight from the file,
+    // so an arena of up to 4096x4096 costs little more than the chunks a session touches. A stored chunk is
+    // checked for tile values outside 0..KINDS-1 the first time it is read, so a damaged one fails there instead
+    // of handing out bad tiles. File layout, big-endian: magic, version, width, height, chunk shift, then one
+    // int per chunk in row-major chunk order (a byte offset to its 1024 bytes, or -1-v for a chunk of all v),
+    // then the stored chunks, each row-major
+    static class TileMap {
+        static final int MAGIC = 0x474C544D; // "GLTM"
+        static final int VERSION = 1;
+        static final int SHIFT = 5, SIZE = 1 << SHIFT, MASK = SIZE - 1;
+        static final int MAX_SIDE = 4096;
+        static final int KINDS = 3; // Floor, wall, spike
+        private static final int HEADER = 5 * 4;
+        final int w, h, cw, ch;
+        private final int[] directory;          // As in the file, but ~offset for a stored chunk not yet checked
+        private final byte[][] chunks;          // Written chunks, null elsewhere
+        private final ByteBuffer source; // Mapped file, null for a map built in memory
+        int owned; // Chunks copied to the heap; in the F3 overlay, where it should stay 0 for a mapped arena
+        File file; // Where a loaded map came from, so replays can find it again
+        private long crc = -1; // Of the whole file, once asked for
+
+        // All floor
+        TileMap(int w, int h) { this(w, h, null, null); }
+
+        private TileMap(int w, int h, int[] directory, ByteBuffer source) {
+            if (w < 1 || h < 1 || w > MAX_SIDE || h > MAX_SIDE) throw new IllegalArgumentException("Map size " + w + "x" + h);
+            this.w = w; this.h = h;
+            cw = (w + MASK) >> SHIFT; ch = (h + MASK) >> SHIFT;
+            if (directory == null) { directory = new int[cw*ch]; Arrays.fill(directory, -1); }
+            this.directory = directory;
+            this.source = source;
+            chunks = new byte[cw*ch][];
+        }
+
+        int get(int x, int y) {
+            int c = (y >> SHIFT)*cw + (x >> SHIFT), i = ((y & MASK) << SHIFT) | (x & MASK);
+            byte[] chunk = chunks[c];
+            if (chunk != null) return chunk[i] & 0xFF;
+            int d = directory[c];
+            if (d < -KINDS) d = check(c);
+            return d < 0 ? -1 - d : source.get(d + i) & 0xFF;
+        }
+
+        void set(int x, int y, int v) {
+            if (v < 0 || v >= KINDS) throw new IllegalArgumentException("Tile value " + v);
+            int c = (y >> SHIFT)*cw + (x >> SHIFT), i = ((y & MASK) << SHIFT) | (x & MASK);
+            byte[] chunk = chunks[c];
+            if (chunk == null) {
+                int d = directory[c];
+                if (d < -KINDS) d = check(c);
+                if (d < 0 && -1 - d == v) return; // Already that value; stay uniform
+                chunk = chunks[c] = new byte[SIZE*SIZE];
+                if (d < 0) Arrays.fill(chunk, (byte)(-1 - d));
+                else source.get(d, chunk);
+                owned++;
+            }
+            chunk[i] = (byte)v;
+        }
+
+        // First read of stored chunk c: refuses tile values outside 0..KINDS-1, then marks it checked. Threads racing
+        // to check the same chunk store the same offset
+        private int check(int c) {
+            int d = ~directory[c];
+            for (int i=0; i<SIZE*SIZE; i++) {
+                int v = source.get(d + i) & 0xFF;
+                if (v >= KINDS) throw new UncheckedIOException(new IOException(file + ": unknown tile value " + v + " in chunk " + c));
+            }
+            return directory[c] = d;
+        }
+
+        // CRC32 of the whole file, so replays can tell it changed. Reads every chunk, so only recording and replay ask
+        long crc() {
+            if (crc < 0) {
+                CRC32 sum = new CRC32();
+                sum.update(source.duplicate().position(0));
+                crc = sum.getValue();
+            }
+            return crc;
+        }
+
+        // Maps the file read-only; only the header and chunk directory are read up front
+        static TileMap load(File file) throws IOException {
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = fc.size();
+                if (size < HEADER || size > Integer.MAX_VALUE) throw new IOException(file + ": not a tile map");
+                MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (buf.getInt() != MAGIC) throw new IOException(file + ": not a tile map");
+                int version = buf.getInt();
+                if (version != VERSION) throw new IOException(file + ": tile map version " + version + ", expected " + VERSION);
+                int w = buf.getInt(), h = buf.getInt(), shift = buf.getInt();
+                if (shift != SHIFT || w < 1 || h < 1 || w > MAX_SIDE || h > MAX_SIDE) throw new IOException(file + ": unsupported " + w + "x" + h + " map with chunk shift " + shift);
+                int n = ((w + MASK) >> SHIFT) * ((h + MASK) >> SHIFT);
+                if (HEADER + 4L*n > size) throw new IOException(file + ": truncated");
+                int[] directory = new int[n];
+                buf.asIntBuffer().get(directory);
+                for (int c=0; c<n; c++) {
+                    int d = directory[c];
+                    if (d < -KINDS || (d >= 0 && (d < HEADER + 4L*n || d + (long)SIZE*SIZE > size))) throw new IOException(file + ": bad chunk entry " + d);
+                    if (d >= 0) directory[c] = ~d; // Its values are checked on first read
+                }
+                TileMap map = new TileMap(w, h, directory, buf);
+                map.file = file;
+                return map;
+            }
+        }
+
+        // Uniform chunks (counting the parts past the map edge as matching) are stored as their value alone.
+        // Returns how many chunks needed their bytes written
+        int save(File file) throws IOException {
+            int n = cw*ch;
+            int[] dir = new int[n];
+            int stored = 0;
+            for (int c=0; c<n; c++) {
+                int v = uniform(c);
+                dir[c] = v >= 0 ? -1 - v : HEADER + 4*n + (stored++)*SIZE*SIZE;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                out.writeInt(MAGIC); out.writeInt(VERSION); out.writeInt(w); out.writeInt(h); out.writeInt(SHIFT);
+                for (int d : dir) out.writeInt(d);
+                byte[] chunk = new byte[SIZE*SIZE];
+                for (int c=0; c<n; c++) {
+                    if (dir[c] < 0) continue;
+                    int x0 = (c % cw) << SHIFT, y0 = (c / cw) << SHIFT;
+                    for (int y=0; y<SIZE; y++) for (int x=0; x<SIZE; x++)
+                        chunk[(y << SHIFT) | x] = (byte)(x0+x < w && y0+y < h ? get(x0+x, y0+y) : 0);
+                    out.write(chunk);
+                }
+            }
+            return stored;
+        }
+
+        // The value every in-bounds tile of chunk c holds, or -1 if they differ
+        private int uniform(int c) {
+            int x0 = (c % cw) << SHIFT, y0 = (c / cw) << SHIFT;
+            int v = get(x0, y0);
+            for (int y=y0; y<Math.min(h, y0+SIZE); y++) for (int x=x0; x<Math.min(w, x0+SIZE); x++) if (get(x, y) != v) return -1;
+            return v;
+        }
+    }
+
+    // Walls and the distance field the raycaster skips open floor with, built per TileMap chunk the first time a
+    // ray or query reaches it, so a big arena only pays for the chunks a session looks at. A cell holds the
+    // Chebyshev distance in tiles to the nearest wall, capped at CAP, so 0 is a wall; outside the map is all wall.
+    // A chunk is computed from the 3x3 chunks around it, which sees every wall within CAP. The cap costs long rays
+    // in wide open maps more skips than a whole-map field would, and the chunk lookup makes each DDA step dearer;
+    // the stock arena raycasts as fast as before. Any thread may build a chunk: a race only builds the same one
+    // twice, and the holder's final field publishes its contents
+    static class WallField {
+        static final int SHIFT = TileMap.SHIFT, SIZE = TileMap.SIZE, MASK = TileMap.MASK;
+        static final int APRON = 1; // Chunks of context on each side of the one being built
+        static final int CAP = APRON * SIZE;
+        private static final class Chunk { final byte[] dist; Chunk(byte[] dist) { this.dist = dist; } }
+        private static final Chunk OUTSIDE = new Chunk(new byte[SIZE*SIZE]); // All wall
+        final TileMap tiles;
+        final int w, h, cw, ch;
+        private final int stride;     // Chunks per row of chunks, counting a ring of OUTSIDE around the map
+        private final Chunk[] chunks; // Null until built. The ring lets a ray step one cell off the map unchecked
+        int built; // Chunks computed so far, racy; for benches
+
+        WallField(TileMap tiles) {
+            this.tiles = tiles; w = tiles.w; h = tiles.h; cw = tiles.cw; ch = tiles.ch;
+            stride = cw + 2;
+            chunks = new Chunk[stride*(ch + 2)];
+            for(int cy=0; cy<ch+2; cy++) for(int cx=0; cx<stride; cx++)
+                if(cx == 0 || cy == 0 || cx == stride-1 || cy == ch+1) chunks[cx + cy*stride] = OUTSIDE;
+        }
+
+        // Valid from -1 to w and h inclusive, which is as far as a ray gets before it hits something
+        int dist(int x, int y) {
+            int c = ((y >> SHIFT) + 1)*stride + (x >> SHIFT) + 1;
+            Chunk k = chunks[c];
+            if(k == null) k = chunks[c] = build(c);
+            return k.dist[((y & MASK) << SHIFT) | (x & MASK)];
+        }
+
+        // Drops the chunks a change to tile (x, y) can reach. Not safe while other threads read
+        void invalidate(int x, int y) {
+            for(int cy=Math.max(0, (y >> SHIFT) - APRON); cy<=Math.min(ch-1, (y >> SHIFT) + APRON); cy++)
+                for(int cx=Math.max(0, (x >> SHIFT) - APRON); cx<=Math.min(cw-1, (x >> SHIFT) + APRON); cx++) chunks[(cy+1)*stride + cx+1] = null;
+        }
+
+        // Distances over the chunk and APRON chunks on each side, inside a ring that counts as open
+        private Chunk build(int c) {
+            int cx = c % stride - 1, cy = c / stride - 1;
+            int n = (2*APRON + 1)*SIZE + 2, x0 = (cx - APRON) * SIZE - 1, y0 = (cy - APRON) * SIZE - 1;
+            byte[] d = new byte[n*n];
+            Arrays.fill(d, (byte)CAP);
+            for(int y=1; y<n-1; y++) for(int x=1; x<n-1; x++) {
+                int tx = x0 + x, ty = y0 + y;
+                if(tx < 0 || ty < 0 || tx >= w || ty >= h || tiles.get(tx, ty) == 1) d[x + y*n] = 0;
+            }
+            // Two-pass chamfer with unit diagonal cost is exact for the Chebyshev metric
+            for(int y=1; y<n-1; y++) for(int x=1; x<n-1; x++) {
+                int i = x + y*n, v = d[i];
+                v = Math.min(v, d[i-1]+1);
+                v = Math.min(v, d[i-n-1]+1);
+                v = Math.min(v, d[i-n]+1);
+                v = Math.min(v, d[i-n+1]+1);
+                d[i] = (byte)v;
+            }
+            for(int y=n-2; y>=1; y--) for(int x=n-2; x>=1; x--) {
+                int i = x + y*n, v = d[i];
+                v = Math.min(v, d[i+1]+1);
+                v = Math.min(v, d[i+n+1]+1);
+                v = Math.min(v, d[i+n]+1);
+                v = Math.min(v, d[i+n-1]+1);
+                d[i] = (byte)v;
+            }
+            byte[] dist = new byte[SIZE*SIZE];
+            for(int y=0; y<SIZE; y++) System.arraycopy(d, (APRON*SIZE+1) + (APRON*SIZE+1+y)*n, dist, y << SHIFT, SIZE);
+            built++;
+            return new Chunk(dist);
+        }
+    }
+
+    static class Level {
+        int w, h;
+        TileMap tiles; // 0 floor, 1 wall, 2 spike
+        final int[] tileCost; // FlowField step cost by tile value; 0 is impassable
+        WallField walls;
+        int version; // Bumped on every edit to tiles so caches of map contents can tell it changed
+        EnemyStore enemies = new EnemyStore(64);
+        EnemyGrid grid;
+        FlowField flow = new FlowField(this);
+        Sprite emperor;
+        int currentWave = 1;
+        Random rng;
+        boolean sealed; // Set once a Simulation owns this level; setTile then refuses
+        
+        // The generated ellipse arena
+        public Level(int w, int h, long seed) { this(w, h, seed, FlowField.SPIKE_COST); }
+        public Level(int w, int h, long seed, int spikeCost) { this(new TileMap(w, h), new Random(seed), true, spikeCost); }
+        // A saved arena; seed still drives spawns
+        public Level(TileMap tiles, long seed) { this(tiles, new Random(seed), false, FlowField.SPIKE_COST); }
+        private Level(TileMap tiles, Random rng, boolean generate, int spikeCost) {
+            this.tiles = tiles; this.w = tiles.w; this.h = tiles.h; this.rng = rng;
+            tileCost = new int[]{1, 0, spikeCost};
+            grid = new EnemyGrid(w, h, enemies);
+            if (generate) generateMap();
+            walls = new WallField(tiles);
+            emperor = new Sprite(); emperor.x = w/2.0; emperor.y = 1.5; emperor.textureId = 3;
+            spawnWave(3);
+        }
+        
+        public boolean isWall(double x, double y) {
+            if(x<0 || x>=w || y<0 || y>=h) return true;
+            return tiles.get((int)x, (int)y) == 1;
+        }
+
+        public int tile(int x, int y) { return tiles.get(x, y); }
+
+        // Tools only: a running session never edits its tiles, since render reads them unsynchronised
+        public void setTile(int x, int y, int v) {
+            if (sealed) throw new IllegalStateException("Tiles of a running session are read-only");
+            tiles.set(x, y, v);
+            walls.invalidate(x, y);
+            version++;
+        }
+
+        // Drops every wall chunk, to be rebuilt on demand. Call after editing tiles directly
+        public void rebuildTiles() {
+            walls = new WallField(tiles);
+            version++;
+        }
+
+        private void generateMap() {
+            int cx = w/2, cy = h/2;
+            for(int x=0; x<w; x++) {
+                for(int y=0; y<h; y++) {
+                    double dx = x-cx; double dy = y-cy;
+                    double val = (dx*dx)/(40.0*40.0) + (dy*dy)/(25.0*25.0);
+                    
+                    if(val >= 1.0) tiles.set(x, y, 1); // Wall
+                    else {
+                        // Random Spikes inside
+                        if(rng.nextDouble() < 0.02 && val < 0.8) tiles.set(x, y, 2); // Spike Trap
+                        else tiles.set(x, y, 0); // Floor
+                    }
+                }
+            }
+        }
+        
+        public void spawnWave(int count) {
+            for(int i=0; i<count; i++) {
+                double a = rng.nextDouble() * Math.PI * 2;
+                double d = 10 + rng.nextDouble() * 15;
+                double ex = w/2.0 + Math.cos(a)*d;
+                double ey = h/2.0 + Math.sin(a)*d*0.6;
+                if(!isWall(ex, ey) && tile((int)ex, (int)ey) != 2) addEnemy(ex, ey);
+            }
+        }
+
+        public void addEnemy(double ex, double ey) { grid.insert(enemies.add(ex, ey)); }
+        public void removeEnemy(int slot) { grid.remove(enemies.id[slot]); enemies.remove(slot); }
+
+        public void submitSprites(SpriteBatch batch) {
+            EnemyStore es = enemies;
+            for(int i=0; i<es.count; i++) batch.add(es.x[i], es.y[i], es.textureId(i));
+            batch.add(emperor.x, emperor.y, emperor.textureId);
+        }
+    }
+
+    // Path costs to the player's tile from every tile within RADIUS of it, shared by all chasers; a chaser further
+    // out walks straight at the player until it comes in range. A Dijkstra over that window (bucket queue, small
+    // integer costs) restarts only when the player enters a new tile or the map changes, and is resumable: it only
+    // drains until the furthest tile a chaser has asked about is settled. Restarting is O(1): a window cell is reset, and
+    // its tile read, the first time a search touches it, found by comparing its stamp with the search generation.
+    // So a tile change costs in proportion to how spread out the wave is, whatever the size of the map. Once a
+    // tile is settled, steering is a single array read. Cost of a step is STRAIGHT or DIAGONAL times the tile's
+    // entry in the level's tileCost, so spikes are a detour of configurable length, 0 makes a tile impassable, and
+    // diagonals never cut a blocked corner
+    static class FlowField {
+        static final int UNREACHED = Integer.MAX_VALUE;
+        static final int STRAIGHT = 2, DIAGONAL = 3; // ~1 : sqrt 2
+        static final int RADIUS = 96; // Covers the whole stock arena from anywhere inside it
+        static final int SIDE = 2*RADIUS + 3; // Window plus a border ring that is never passable
+        // Neighbours; a direction and its opposite differ only in bit 1
+        static final int[] DX = {1, 0, -1, 0, 1, -1, -1, 1}, DY = {0, 1, 0, -1, 1, 1, -1, -1};
+        static final int[] OFF = new int[8]; // DX/DY as window index offsets
+        static { for(int d=0; d<8; d++) OFF[d] = DX[d] + DY[d]*SIDE; }
+        static final int SPIKE_COST = Integer.getInteger("gladiator.spikeCost", 8); // Default for new levels
+        final Level level;
+        // Per window cell, valid only where stamp == generation
+        int[] step;  // tileCost of the cell, 0 where impassable
+        int[] cost;  // Path cost from the cell to the target
+        byte[] next; // Direction toward the target, -1 at the target or when unreached
+        int[] stamp;
+        int generation;
+        int originX, originY; // Map tile of window cell 0
+        int targetX = -1, targetY = -1, version = -1;
+        int frontier, pending; // Every cell cheaper than frontier is settled; pending entries remain queued
+        int rebuilds;
+        private IntList[] buckets;
+
+        FlowField(Level level) { this.level = level; }
+
+        // Heading in radians from (x, y) toward the player at (px, py); NaN when unreachable, out of range or one step away
+        double steer(double x, double y, double px, double py) {
+            int tx = (int)px, ty = (int)py;
+            if(tx != targetX || ty != targetY || version != level.version) rebuild(tx, ty);
+            int i = index(x, y);
+            if(i < 0) return Double.NaN;
+            touch(i);
+            if(cost[i] >= frontier) expand(i);
+            int d = next[i];
+            if(d < 0 || cost[i + OFF[d]] == 0) return Double.NaN;
+            int cx = (int)x, cy = (int)y;
+            return Math.atan2(cy + DY[d] + 0.5 - y, cx + DX[d] + 0.5 - x); // Aim at the next tile's centre
+        }
+
+        // Window cell of map position (x, y), or -1 outside the window's interior
+        int index(double x, double y) {
+            if(x < 0 || y < 0) return -1;
+            int lx = (int)x - originX, ly = (int)y - originY;
+            if(lx < 1 || ly < 1 || lx >= SIDE-1 || ly >= SIDE-1) return -1;
+            return lx + ly*SIDE;
+        }
+
+        void rebuild(int tx, int ty) {
+            if(step == null) {
+                int n = SIDE*SIDE;
+                step = new int[n]; cost = new int[n]; next = new byte[n]; stamp = new int[n];
+                int max = 1;
+                for(int c : level.tileCost) max = Math.max(max, c);
+                buckets = new IntList[Integer.highestOneBit(DIAGONAL*max) << 1]; // Every edge lands in a later bucket, never the one being drained
+                for(int b=0; b<buckets.length; b++) buckets[b] = new IntList();
+            }
+            if(++generation == 0) { Arrays.fill(stamp, 0); generation = 1; } // Wrapped: no cell may look current
+            targetX = tx; targetY = ty; version = level.version; rebuilds++;
+            originX = tx - RADIUS - 1; originY = ty - RADIUS - 1;
+            for(IntList b : buckets) b.clear();
+            frontier = 0; pending = 0;
+            if(tx < 0 || ty < 0 || tx >= level.w || ty >= level.h) return;
+
+            int start = (RADIUS+1) * (SIDE+1);
+            touch(start);
+            cost[start] = 0;
+            buckets[0].add(start);
+            pending = 1;
+        }
+
+        // Resets cell i for this generation unless a search already has
+        private void touch(int i) {
+            if(stamp[i] == generation) return;
+            stamp[i] = generation;
+            cost[i] = UNREACHED; next[i] = -1;
+            int lx = i % SIDE, ly = i / SIDE, x = originX + lx, y = originY + ly;
+            boolean outside = lx == 0 || ly == 0 || lx == SIDE-1 || ly == SIDE-1 || x < 0 || y < 0 || x >= level.w || y >= level.h;
+            step[i] = outside ? 0 : level.tileCost[level.tile(x, y)];
+        }
+
+        // Drains the queue until cell until is settled (its cost is below frontier), or entirely when until is -1
+        void expand(int until) {
+            int mask = buckets.length - 1, gen = generation;
+            int[] step = this.step, cost = this.cost, stamp = this.stamp, off = OFF;
+            for(; pending > 0 && (until < 0 || frontier <= cost[until]); frontier++) {
+                int c = frontier;
+                IntList b = buckets[c & mask];
+                for(int k=0; k<b.size; k++) {
+                    int i = b.data[k];
+                    pending--;
+                    if(cost[i] != c) continue; // Superseded by a cheaper path
+                    for(int d=0; d<8; d++) {
+                        int j = i + off[d];
+                        if(stamp[j] != gen) touch(j);
+                        if(step[j] == 0) continue;
+                        if(d >= 4) {
+                            int a = i + DX[d], e = i + DY[d]*SIDE;
+                            if(stamp[a] != gen) touch(a);
+                            if(stamp[e] != gen) touch(e);
+                            if(step[a] == 0 || step[e] == 0) continue;
+                        }
+                        int nc = c + (d < 4 ? STRAIGHT : DIAGONAL) * step[j];
+                        if(nc >= cost[j]) continue;
+                        cost[j] = nc; next[j] = (byte)(d ^ 2);
+                        buckets[nc & mask].add(j);
+                        pending++;
+                    }
+                }
+                b.clear();
+            }
+        }
+    }
+
+    // Uniform hash over the tile grid (2x2 tiles per cell). Each cell is a doubly linked list of
+    // enemy ids, so inserts, removals and cell changes are O(1) and survive EnemyStore swaps.
+    static class EnemyGrid {
+        static final int SHIFT = 1;
+        final int cw, ch;
+        final int[] heads;
+        final EnemyStore store;
+        int[] prev = new int[64], next = new int[64], cell = new int[64]; // Indexed by enemy id
+
+        EnemyGrid(int w, int h, EnemyStore store) {
+            cw = (w >> SHIFT) + 1; ch = (h >> SHIFT) + 1;
+            heads = new int[cw*ch];
+            Arrays.fill(heads, -1);
+            this.store = store;
+        }
+
+        int cellOf(double x, double y) {
+            int cx = Math.max(0, Math.min(cw-1, (int)x >> SHIFT));
+            int cy = Math.max(0, Math.min(ch-1, (int)y >> SHIFT));
+            return cx + cy*cw;
+        }
+
+        void insert(int id) {
+            if(id >= cell.length) {
+                int n = Math.max(id+1, cell.length*2);
+                prev = Arrays.copyOf(prev, n); next = Arrays.copyOf(next, n); cell = Arrays.copyOf(cell, n);
+            }
+            int slot = store.slotOf[id];
+            int c = cellOf(store.x[slot], store.y[slot]);
+            cell[id] = c; prev[id] = -1; next[id] = heads[c];
+            if(heads[c] >= 0) prev[heads[c]] = id;
+            heads[c] = id;
+        }
+
+        void remove(int id) {
+            if(prev[id] >= 0) next[prev[id]] = next[id]; else heads[cell[id]] = next[id];
+            if(next[id] >= 0) prev[next[id]] = prev[id];
+        }
+
+        // Call after changing the enemy's x/y
+        void moved(int id) {
+            int slot = store.slotOf[id];
+            if(cellOf(store.x[slot], store.y[slot]) != cell[id]) { remove(id); insert(id); }
+        }
+
+        // Fills out with the slots of every enemy in cells overlapping the square of half-size r around (x, y);
+        // callers do the exact test
+        IntList query(double x, double y, double r, IntList out) {
+            out.clear();
+            int x0 = Math.max(0, (int)(x-r) >> SHIFT), x1 = Math.min(cw-1, (int)(x+r) >> SHIFT);
+            int y0 = Math.max(0, (int)(y-r) >> SHIFT), y1 = Math.min(ch-1, (int)(y+r) >> SHIFT);
+            for(int cy=y0; cy<=y1; cy++)
+                for(int cx=x0; cx<=x1; cx++)
+                    for(int id = heads[cx + cy*cw]; id >= 0; id = next[id]) out.add(store.slotOf[id]);
+            return out;
+        }
+    }
+
+    static class Camera {
+        double xPos, yPos, xDir, yDir, xPlane, yPlane;
+        double pxPos, pyPos, pxDir, pyDir, pxPlane, pyPlane; // State at the start of the current tick
+        public Camera(double x, double y, double xd, double yd, double xp) {
+            xPos=x; yPos=y; xDir=xd; yDir=yd; xPlane=0; yPlane=xp;
+            savePrevious();
+        }
+        public void set(Camera c) {
+            xPos=c.xPos; yPos=c.yPos; xDir=c.xDir; yDir=c.yDir; xPlane=c.xPlane; yPlane=c.yPlane;
+            pxPos=c.pxPos; pyPos=c.pyPos; pxDir=c.pxDir; pyDir=c.pyDir; pxPlane=c.pxPlane; pyPlane=c.pyPlane;
+        }
+        public void savePrevious() {
+            pxPos=xPos; pyPos=yPos; pxDir=xDir; pyDir=yDir; pxPlane=xPlane; pyPlane=yPlane;
+        }
+        // Sets this camera to c's previous tick blended a (0..1) of the way towards its current one
+        public void interpolate(Camera c, double a) {
+            if(a>1) a=1;
+            xPos=c.pxPos+(c.xPos-c.pxPos)*a; yPos=c.pyPos+(c.yPos-c.pyPos)*a;
+            xDir=c.pxDir+(c.xDir-c.pxDir)*a; yDir=c.pyDir+(c.yDir-c.pyDir)*a;
+            xPlane=c.pxPlane+(c.xPlane-c.pxPlane)*a; yPlane=c.pyPlane+(c.yPlane-c.pyPlane)*a;
+        }
+        public void rotate(double a) {
+            double oldX = xDir;
+            xDir = xDir * Math.cos(a) - yDir * Math.sin(a);
+            yDir = oldX * Math.sin(a) + yDir * Math.cos(a);
+            double oldP = xPlane;
+            xPlane = xPlane * Math.cos(a) - yPlane * Math.sin(a);
+            yPlane = oldP * Math.sin(a) + yPlane * Math.cos(a);
+        }
+    }
+
+    // Gets the internal frame onto the window by the cheapest route for the current scale. The frame's raster is
+    // shared with the raycaster, which leaves it unmanaged, so every blit from it is a software copy: EXACT copies
+    // it 1:1, SCALED stretches with nearest-neighbour. A whole factor gets no route of its own, since replicating
+    // pixels into a second image first measured up to twice the stretch. On a pipeline that can accelerate images,
+    // SCALED uploads the frame once at internal size into a VolatileImage stage (redone if its contents are lost)
+    // and lets the GPU stretch that; unaccelerated, the upload is pure overhead and it stretches directly.
+    // Offscreen (gc null) the stage is a plain BufferedImage, used only when stageOffscreen asks for it
+    static class Presenter {
+        static final int EXACT = 0, SCALED = 1;
+        static final String[] NAMES = {"exact", "scaled"};
+        int path;     // Of the last present
+        int restores; // Times the stage lost its contents mid-present; in the F3 overlay
+        boolean stageOffscreen;
+        private VolatileImage stage;
+        private BufferedImage standIn;
+
+        static int pathFor(int w, int h, int dw, int dh) {
+            return w == dw && h == dh ? EXACT : SCALED;
+        }
+
+        // gc is the window's configuration, or null to present into an offscreen target
+        void present(Graphics2D g, BufferedImage frame, int dw, int dh, GraphicsConfiguration gc) {
+            int w = frame.getWidth(), h = frame.getHeight();
+            path = pathFor(w, h, dw, dh);
+            if (path == EXACT) { g.drawImage(frame, 0, 0, null); return; }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            boolean staged = gc != null ? gc.getImageCapabilities().isAccelerated() : stageOffscreen;
+            if (!staged) { g.drawImage(frame, 0, 0, dw, dh, null); return; }
+
+            if (gc == null) {
+                if (standIn == null || standIn.getWidth() != w || standIn.getHeight() != h) standIn = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                Graphics2D sg = standIn.createGraphics();
+                sg.drawImage(frame, 0, 0, null);
+                sg.dispose();
+                g.drawImage(standIn, 0, 0, dw, dh, null);
+                return;
+            }
+            while (true) {
+                if (stage == null || stage.getWidth() != w || stage.getHeight() != h || stage.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    if (stage != null) stage.flush();
+                    stage = gc.createCompatibleVolatileImage(w, h);
+                }
+                Graphics2D sg = stage.createGraphics();
+                sg.drawImage(frame, 0, 0, null);
+                sg.dispose();
+                g.drawImage(stage, 0, 0, dw, dh, null);
+                if (!stage.contentsLost()) return;
+                restores++;
+            }
+        }
+    }
+
+    // Sleeps until the next frame deadline; parks while far away and only spins for the last stretch
+    private static class FramePacer {
+        private static final long SPIN_NS = 1_000_000;
+        long frameNs, next;
+        public FramePacer(int fps) {
+            frameNs = fps > 0 ? 1_000_000_000L / fps : 0;
+            next = System.nanoTime();
+        }
+        public void sync() {
+            if (frameNs == 0) return;
+            long now = System.nanoTime();
+            next += frameNs;
+            if (next < now) next = now; // Missed the deadline: start a fresh frame instead of rushing the next ones
+            long left;
+            while ((left = next - System.nanoTime()) > SPIN_NS) LockSupport.parkNanos(left - SPIN_NS);
+            while (next - System.nanoTime() > 0) Thread.onSpinWait();
+        }
+    }
+
+    // Rolling per-stage frame timings for the F3 overlay. Each stage has a log-linear histogram (8 sub-buckets per
+    // power of two, so a percentile is within 1/16 of the true value) that covers one window; when the window
+    // closes its percentiles are frozen into the overlay text and the counts start over. Samples are also
+    // emitted as JFR events, which cost nothing unless a recording enables gladiator.FrameStage
+    static class FrameProfiler {
+        static final int UPDATE = 0, WALLS = 1, FLOOR = 2, SPRITES = 3, HUD = 4, MINIMAP = 5, PRESENT = 6, STAGES = 7;
+        static final String[] NAMES = {"update", "walls", "floor", "sprites", "hud", "minimap", "present"};
+        static final int SUB_BITS = 3, SUB = 1 << SUB_BITS, BUCKETS = 64 << SUB_BITS;
+        static final long WINDOW_NS = 1_000_000_000L;
+        static final Font FONT = new Font("Monospaced", Font.PLAIN, 12);
+        static final Color BACKDROP = new Color(0, 0, 0, 160);
+
+        final int[][] counts = new int[STAGES][BUCKETS];
+        final int[] samples = new int[STAGES];
+        volatile boolean visible;
+        volatile String[] lines = {"profiling..."}; // Overlay text of the last closed window
+        private final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private long windowStart = System.nanoTime(), allocStart = -1;
+        private int frames;
+
+        @jdk.jfr.Name("gladiator.FrameStage")
+        @jdk.jfr.Label("Frame Stage")
+        @jdk.jfr.Category("Gladiator")
+        @jdk.jfr.StackTrace(false)
+        static class StageEvent extends jdk.jfr.Event {
+            @jdk.jfr.Label("Stage") String stage;
+            @jdk.jfr.Label("Time") @jdk.jfr.Timespan long nanos;
+        }
+
+        void record(int stage, long ns) {
+            counts[stage][bucket(Math.max(0, ns))]++;
+            samples[stage]++;
+            StageEvent e = new StageEvent();
+            if (e.shouldCommit()) { e.stage = NAMES[stage]; e.nanos = ns; e.commit(); }
+        }
+
+        void endFrame(long now) {
+            frames++;
+            if (now - windowStart >= WINDOW_NS) roll(now);
+        }
+
+        // Values below SUB get their own bucket; above that, SUB buckets per power of two
+        static int bucket(long v) {
+            if (v < SUB) return (int)v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            return ((exp - SUB_BITS + 1) << SUB_BITS) + (int)((v >>> (exp - SUB_BITS)) & (SUB - 1));
+        }
+
+        static long bucketMid(int b) {
+            if (b < SUB) return b;
+            int shift = (b >> SUB_BITS) - 1;
+            return ((SUB + (b & (SUB - 1))) << shift) + ((1L << shift) >> 1);
+        }
+
+        long percentile(int stage, double p) {
+            int n = samples[stage];
+            if (n == 0) return 0;
+            long target = (long)Math.ceil(p * n), seen = 0;
+            int[] c = counts[stage];
+            for (int b=0; b<BUCKETS; b++) if ((seen += c[b]) >= target) return bucketMid(b);
+            return bucketMid(BUCKETS - 1);
+        }
+
+        private void roll(long now) {
+            long alloc = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            double secs = (now - windowStart) / 1e9;
+            String[] out = new String[STAGES + 1];
+            out[0] = String.format("%5.1f fps  alloc %s", frames / secs,
+                allocStart < 0 ? "-" : String.format("%.2f MB/s", (alloc - allocStart) / secs / 1e6));
+            for (int s=0; s<STAGES; s++)
+                out[s+1] = String.format("%-8s p50 %6.2f  p99 %6.2f ms", NAMES[s], percentile(s, 0.5) / 1e6, percentile(s, 0.99) / 1e6);
+            lines = out;
+            for (int[] c : counts) Arrays.fill(c, 0);
+            Arrays.fill(samples, 0);
+            frames = 0;
+            windowStart = now;
+            allocStart = mx.getThreadAllocatedBytes(Thread.currentThread().getId()); // After the formatting above
+        }
+
+        // The closed window's stage timings, then the caller's status lines
+        void drawOverlay(Graphics2D g, int width, String[] status) {
+            String[] text = lines;
+            int x = width - 250, y = 20, n = text.length + status.length;
+            g.setColor(BACKDROP);
+            g.fillRect(x - 6, y - 4, 250, n * 14 + 8);
+            g.setFont(FONT);
+            g.setColor(Color.WHITE);
+            for (int i=0; i<n; i++) g.drawString(i < text.length ? text[i] : status[i - text.length], x, y + 10 + i*14);
+        }
+    }
+
+    // Produces per-tick input the way a player would, through the same InputHandler snapshot. The bot turns toward
+    // the nearest live enemy, closes to sword reach, swings when it is in the cone and raises the shield (or backs
+    // off, when out of stamina) while an enemy close by winds up; scripted mode just holds random buttons for random stretches
+    static class Bot {
+        static final int MAX_TURN = 60;          // Mouse counts per tick (about 5 rad/s)
+        static final double TURN_PER_COUNT = 0.0015; // updateGame's mouse sensitivity
+        final boolean scripted;
+        final Random rng;
+        private int strafe, bits, hold;
+
+        Bot(long seed, boolean scripted) { this.rng = new Random(seed); this.scripted = scripted; }
+
+        void think(Simulation sim, InputHandler out) {
+            if (scripted) {
+                if (hold-- <= 0) { bits = rng.nextInt(64) & ~InputHandler.BACK; hold = rng.nextInt(40); }
+                out.set(bits, rng.nextInt(8) == 0 ? rng.nextInt(41) - 20 : 0);
+                return;
+            }
+            Camera c = sim.camera;
+            EnemyStore es = sim.level.enemies;
+            int target = -1;
+            double best = Double.MAX_VALUE;
+            boolean threat = false;
+            for (int i=0; i<es.count; i++) {
+                if (es.dead[i]) continue;
+                double dx = es.x[i] - c.xPos, dy = es.y[i] - c.yPos, d2 = dx*dx + dy*dy;
+                if (d2 < best) { best = d2; target = i; }
+                if ((es.state[i] == EnemyStore.WINDUP || es.state[i] == EnemyStore.ATTACK) && d2 < 2.5*2.5) threat = true;
+            }
+            int b = 0, turn = 0;
+            if (target >= 0) {
+                double diff = Math.IEEEremainder(Math.atan2(es.y[target] - c.yPos, es.x[target] - c.xPos) - Math.atan2(c.yDir, c.xDir), 2*Math.PI);
+                turn = (int)Math.max(-MAX_TURN, Math.min(MAX_TURN, Math.round(diff / TURN_PER_COUNT)));
+                double dist = Math.sqrt(best);
+                if (threat && sim.player.stamina <= 20) b |= InputHandler.BACK; // Out of shield: back off
+                else if (dist > 1.8) b |= InputHandler.FORWARD;
+                if (threat && sim.player.stamina > 20) b |= InputHandler.BLOCK;
+                else if (dist < CombatSystem.REACH && Math.abs(diff) < 0.9 && sim.player.stamina > 15) b |= InputHandler.ATTACK;
+            }
+            if (hold-- <= 0) { strafe = rng.nextInt(3); hold = 30 + rng.nextInt(60); }
+            if (strafe == 1) b |= InputHandler.LEFT; else if (strafe == 2) b |= InputHandler.RIGHT;
+            out.set(b, turn);
+        }
+    }
+
+    // Plays many independent arenas on all cores, uncapped, and reports throughput, how far arenas get and how
+    // each wave plays out. Arena i is seeded from the base seed and i alone, so results do not depend on threads.
+    //   --batch [arenas=1000] [maxTicks=36000] [bot|script]   -Dgladiator.seed, -Dgladiator.batchThreads
+    private static class Batch {
+        static void run(String[] args) throws IOException {
+            int arenas = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+            int maxTicks = args.length > 2 ? Integer.parseInt(args[2]) : 60*60*10;
+            boolean scripted = args.length > 3 && args[3].equals("script");
+            int threads = Math.max(1, Integer.getInteger("gladiator.batchThreads", Runtime.getRuntime().availableProcessors()));
+            long base = Long.getLong("gladiator.seed", 1);
+            SoundEngine silent = SoundEngine.silent();
+
+            int[] outcome = new int[arenas], ticks = new int[arenas], wave = new int[arenas], kills = new int[arenas];
+            int[][] clearedAt = new int[arenas][];
+            double[][] damage = new double[arenas][];
+            double[] health = new double[arenas];
+            long[] check = new long[arenas];
+            AtomicInteger next = new AtomicInteger();
+            Runnable worker = () -> {
+                InputHandler input = new InputHandler();
+                for (int i; (i = next.getAndIncrement()) < arenas; ) {
+                    long seed = base + i * 0x9E3779B97F4A7C15L;
+                    Simulation sim = new Simulation(seed, silent);
+                    Bot bot = new Bot(~seed, scripted);
+                    int out = Simulation.RUNNING;
+                    while (out == Simulation.RUNNING && sim.ticks < maxTicks) {
+                        bot.think(sim, input);
+                        out = sim.tick(input);
+                    }
+                    outcome[i] = out; ticks[i] = sim.ticks; wave[i] = Math.min(sim.level.currentWave, Simulation.WAVES);
+                    kills[i] = sim.kills; clearedAt[i] = sim.clearedAt; damage[i] = sim.damageTaken;
+                    health[i] = sim.player.health; check[i] = sim.checksum();
+                }
+            };
+            long t0 = System.nanoTime();
+            Thread[] pool = new Thread[threads];
+            for (int t=0; t<threads; t++) (pool[t] = new Thread(worker, "Arena-" + t)).start();
+            for (Thread t : pool) {
+                try { t.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+            }
+            double secs = (System.nanoTime() - t0) / 1e9;
+
+            long total = 0, killed = 0, digest = 0;
+            int won = 0, died = 0;
+            double wonHealth = 0, hurt = 0;
+            for (int i=0; i<arenas; i++) {
+                total += ticks[i]; killed += kills[i]; digest = digest*31 + check[i];
+                if (outcome[i] == Simulation.WON) { won++; wonHealth += health[i]; }
+                if (outcome[i] == Simulation.DIED) died++;
+                for (double d : damage[i]) hurt += d;
+            }
+            double minutes = total / 3600.0;
+            System.out.printf("batch: %d arenas (%s), %d threads, cap %d ticks, seed %d%n", arenas, scripted ? "script" : "bot", threads, maxTicks, base);
+            System.out.printf("  %d ticks in %.2f s: %.0f ticks/s (%.0fx real time), %.0f ticks/s per thread%n",
+                total, secs, total / secs, total / 60.0 / secs, total / secs / threads);
+            System.out.printf("  won %.1f%%  died %.1f%%  timed out %.1f%%%n",
+                100.0 * won / arenas, 100.0 * died / arenas, 100.0 * (arenas - won - died) / arenas);
+            System.out.printf("  kills/min %.2f  damage taken/min %.1f  health left on wins %.1f%n",
+                killed / minutes, hurt / minutes, won > 0 ? wonHealth / won : 0);
+            System.out.printf("  %-5s %8s %8s %8s %18s %14s%n", "wave", "reached", "cleared", "died in", "clear s p50/p90", "damage/arena");
+            for (int w=1; w<=Simulation.WAVES; w++) {
+                int reached = 0, cleared = 0, diedIn = 0;
+                double dmg = 0;
+                int[] clearTicks = new int[arenas];
+                for (int i=0; i<arenas; i++) {
+                    if (wave[i] < w) continue;
+                    reached++;
+                    dmg += damage[i][w];
+                    if (clearedAt[i][w] > 0) clearTicks[cleared++] = clearedAt[i][w] - clearedAt[i][w-1];
+                    else if (outcome[i] == Simulation.DIED) diedIn++;
+                }
+                Arrays.sort(clearTicks, 0, cleared);
+                String times = cleared == 0 ? "-" : String.format("%.1f / %.1f", clearTicks[(cleared-1)/2] / 60.0, clearTicks[(int)((cleared-1)*0.9)] / 60.0);
+                System.out.printf("  %-5d %8d %8d %8d %18s %14.1f%n", w, reached, cleared, diedIn, times, reached > 0 ? dmg / reached : 0);
+            }
+            System.out.printf("  digest %016x%n", digest);
+        }
+    }
+
+    // Per-tick input log: a header (magic, version, session seed, arena file as given and its CRC32, or an empty
+    // path for the generated arena, then the AI budget and spike cost the session ran with), then one tag byte per tick. A tag holds the
+    // InputHandler button bits, with MOUSE set when a zigzag varint mouse delta follows; REPEAT tags instead carry
+    // a varint count of ticks identical to the previous one, so idle stretches cost a few bytes
+    private static final int REPLAY_MAGIC = 0x474C5250; // "GLRP"
+    private static final int REPLAY_VERSION = 6; // Also bumped when simulation rules change, since old logs no longer replay
+
+    static class InputRecorder implements Closeable {
+        static final int MOUSE = 0x40, REPEAT = 0x80;
+        private final DataOutputStream out;
+        private int lastBits = -1, repeats;
+
+        // Call before sim's first tick
+        private InputRecorder(OutputStream os, Simulation sim) throws IOException {
+            TileMap arena = sim.level.tiles.file != null ? sim.level.tiles : null; // A generated arena has no file
+            out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(REPLAY_MAGIC);
+            out.writeByte(REPLAY_VERSION);
+            out.writeLong(sim.seed);
+            out.writeUTF(arena != null ? arena.file.getPath() : "");
+            out.writeLong(arena != null ? arena.crc() : 0);
+            out.writeInt(sim.ai.budget);
+            out.writeInt(sim.level.tileCost[2]);
+        }
+        static InputRecorder create(String path, Simulation sim) throws IOException { return new InputRecorder(new FileOutputStream(path), sim); }
+        static InputRecorder to(OutputStream os, Simulation sim) throws IOException { return new InputRecorder(os, sim); }
+
+        void write(InputHandler in) throws IOException {
+            int bits = in.bits(), dx = in.mouseDx;
+            if (bits == lastBits && dx == 0) { repeats++; return; }
+            flushRepeats();
+            out.writeByte(bits | (dx != 0 ? MOUSE : 0));
+            if (dx != 0) writeVarint(out, (dx << 1) ^ (dx >> 31));
+            lastBits = dx == 0 ? bits : -1; // A tick with motion is never repeated
+        }
+
+        private void flushRepeats() throws IOException {
+            if (repeats == 0) return;
+            out.writeByte(REPEAT);
+            writeVarint(out, repeats);
+            repeats = 0;
+        }
+
+        void flush() throws IOException {
+            flushRepeats();
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            flushRepeats();
+            out.close();
+        }
+
+        static void writeVarint(DataOutputStream out, int v) throws IOException {
+            while ((v & ~0x7F) != 0) { out.writeByte((v & 0x7F) | 0x80); v >>>= 7; }
+            out.writeByte(v);
+        }
+    }
+
+    static class InputReplay implements Closeable {
+        final long seed;
+        final TileMap arena; // The recorded arena, mapped again and checked against its CRC; null when generated
+        private final DataInputStream in;
+        private int lastBits, repeats;
+
+        private InputReplay(InputStream is) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(is));
+            if (in.readInt() != REPLAY_MAGIC) throw new IOException("Not a replay file");
+            int version = in.readUnsignedByte();
+            if (version != REPLAY_VERSION) throw new IOException("Unsupported replay version " + version);
+            seed = in.readLong();
+            String path = in.readUTF();
+            long crc = in.readLong();
+            arena = path.isEmpty() ? null : TileMap.load(new File(path));
+            if (arena != null && arena.crc() != crc) throw new IOException(path + " has changed since the session was recorded");
+            int budget = in.readInt(), spikeCost = in.readInt(); // A replay runs with this process's settings, so they must match
+            if (budget != AIScheduler.DEFAULT_BUDGET) throw new IOException("Recorded with -Dgladiator.aiBudget=" + budget + ", running with " + AIScheduler.DEFAULT_BUDGET);
+            if (spikeCost != FlowField.SPIKE_COST) throw new IOException("Recorded with -Dgladiator.spikeCost=" + spikeCost + ", running with " + FlowField.SPIKE_COST);
+        }
+        static InputReplay open(String path) throws IOException { return new InputReplay(new FileInputStream(path)); }
+        static InputReplay from(InputStream is) throws IOException { return new InputReplay(is); }
+
+        // Loads the next tick into the snapshot fields of in; false at the end of the recording
+        boolean next(InputHandler input) {
+            try {
+                if (repeats == 0) {
+                    int tag = in.read();
+                    if (tag < 0) return false;
+                    if ((tag & InputRecorder.REPEAT) != 0) {
+                        repeats = readVarint() - 1;
+                    } else {
+                        lastBits = tag & ~InputRecorder.MOUSE;
+                        int dx = 0;
+                        if ((tag & InputRecorder.MOUSE) != 0) { int z = readVarint(); dx = (z >>> 1) ^ -(z & 1); }
+                        input.set(lastBits, dx);
+                        return true;
+                    }
+                } else {
+                    repeats--;
+                }
+                input.set(lastBits, 0);
+                return true;
+            } catch (IOException e) {
+                return false; // Truncated file: treat as the end
+            }
+        }
+
+        private int readVarint() throws IOException {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.readUnsignedByte();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+        }
+
+        public void close() throws IOException { in.close(); }
+    }
+
+    // Picks the internal render resolution, in tenths of the window size, that keeps raycast + sprite time under
+    // the frame budget. Steps down after a few slow frames, back up only after a long run of fast ones, and ignores
+    // the frames right after a change so the reallocation is not mistaken for load
+    static class ResolutionScaler {
+        static final int MIN_TENTHS = 5;
+        static final int DOWN_FRAMES = 5, UP_FRAMES = 120, COOLDOWN = 20;
+        static final double HIGH = 0.85, LOW = 0.55; // Fractions of the budget that count as slow / fast
+        final long budgetNs;
+        int tenths = 10;
+        double avgNs;
+        int slow, fast, cooldown = COOLDOWN; // Starts cooling down so JIT warm-up is not taken as load
+
+        ResolutionScaler(int fps) { budgetNs = 1_000_000_000L / (fps > 0 ? fps : 60); } // Only uncapped (0) falls back to 60
+
+        int scaled(int size) { return Math.max(64, size * tenths / 10); }
+
+        // Feeds one frame's render time; true when the resolution changed
+        boolean update(long workNs) {
+            if (cooldown > 0) { cooldown--; avgNs = workNs; return false; }
+            avgNs += (workNs - avgNs) * 0.2;
+            slow = avgNs > budgetNs*HIGH ? slow+1 : 0;
+            fast = avgNs < budgetNs*LOW ? fast+1 : 0;
+            int next = tenths;
+            if (slow >= DOWN_FRAMES && tenths > MIN_TENTHS) next--;
+            else if (fast >= UP_FRAMES && tenths < 10) next++;
+            if (next == tenths) return false;
+            tenths = next;
+            slow = fast = 0;
+            cooldown = COOLDOWN;
+            return true;
+        }
+    }
+
+    // --- RENDERING ---
+    static class TextureManager {
+        static final int COUNT = 9;
+        // Blocks until the atlas is baked or loaded
+        public static void init() { AssetPack.await(); }
+
+        // Each texture draws from its own seeded Random, so they can be generated in any order or in parallel
+        static Texture generate(int id) {
+            Random rng = new Random(64 + id);
+            switch (id) {
+                case 0: return Texture.genWall(rng); // Crowd
+                case 1: return Texture.genGate(); // Gate
+                case 2: return Texture.genFloor(0xD2B48C, rng); // Sand
+                case 3: return Texture.genSprite(0x800080); // Emperor
+                case 4: return Texture.genGlad(false, false); // Idle
+                case 5: return Texture.genGlad(true, false); // Atk
+                case 6: return Texture.genBlood(rng); // Dead
+                case 7: return Texture.genGlad(false, true); // Stun
+                default: return Texture.genFloor(0x333333, rng); // 8: SPIKE (Dark Grey, Better Texture)
+            }
+        }
+    }
+
+    // Textures (as the finished mip atlas) and sound effects, baked once and kept in a versioned pack file. The
+    // first launch generates every texture and effect as its own task on the common pool and writes the pack;
+    // later launches read it back, so nothing is generated at all. It is read into the heap rather than mapped:
+    // every byte ends up in heap arrays anyway, and a mapping left open would stop Windows replacing the file.
+    // Loading starts in the background before the window opens and only starting a game waits for it. The atlas
+    // takes its texture edge from the header, so a pack of bigger textures loads as is. A pack with the wrong magic
+    // or version, dimensions that don't add up or a bad checksum is rebaked and replaced. -Dgladiator.assets=<file>
+    // moves the pack; an empty value turns it off
+    static class AssetPack {
+        static final int MAGIC = 0x474C4150; // "GLAP"
+        static final int VERSION = 1;        // Bump when a generator or the layout changes
+        static final String PATH = System.getProperty("gladiator.assets",
+            System.getProperty("user.home") + File.separator + ".gladiator" + File.separator + "assets.pack");
+        static byte[][] sounds; // PCM per SoundEngine.Effect ordinal
+        static String origin;   // "baked" or "read"
+        static volatile long loadNs; // Written after origin, so a non-zero value means origin is set
+        private static ForkJoinTask<?> task;
+
+        static synchronized void start() { if (task == null) task = ForkJoinPool.commonPool().submit(AssetPack::load); }
+        static void await() { start(); task.join(); }
+
+        private static void load() {
+            long t0 = System.nanoTime();
+            File file = PATH.isEmpty() ? null : new File(PATH);
+            if (file != null && read(file)) origin = "read";
+            else {
+                bake();
+                origin = "baked";
+                if (file != null) {
+                    try { write(file); } catch (IOException e) { System.err.println("Asset pack not saved: " + e); }
+                }
+            }
+            loadNs = System.nanoTime() - t0;
+        }
+
+        static void bake() {
+            Texture[] tex = new Texture[TextureManager.COUNT];
+            byte[][] pcm = new byte[SoundEngine.EFFECTS.length][];
+            List<ForkJoinTask<?>> jobs = new ArrayList<>();
+            for (int i=0; i<tex.length; i++) { int id = i; jobs.add(ForkJoinTask.adapt(() -> { tex[id] = TextureManager.generate(id); })); }
+            for (SoundEngine.Effect e : SoundEngine.EFFECTS) jobs.add(ForkJoinTask.adapt(() -> { pcm[e.ordinal()] = SoundEngine.synthesize(e); }));
+            ForkJoinTask.invokeAll(jobs);
+            TextureAtlas.build(Arrays.asList(tex));
+            sounds = pcm;
+        }
+
+        // Header: magic, version, texture size, mip levels, offset count, atlas ints, sound count. Then offsets, atlas,
+        // each sound as length + bytes, and a CRC32 of everything after the header. Big-endian throughout
+        private static final int HEADER = 7 * 4;
+
+        static void write(File file) throws IOException {
+            int[] offsets = TextureAtlas.offsets, data = TextureAtlas.data;
+            long size = HEADER + 4L*(offsets.length + data.length) + 8;
+            for (byte[] b : sounds) size += 4 + b.length;
+            ByteBuffer buf = ByteBuffer.allocate((int)size);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(TextureAtlas.size).putInt(TextureAtlas.levels).putInt(offsets.length).putInt(data.length).putInt(sounds.length);
+            buf.asIntBuffer().put(offsets).put(data);
+            buf.position(buf.position() + 4*(offsets.length + data.length));
+            for (byte[] b : sounds) buf.putInt(b.length).put(b);
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), HEADER, buf.position() - HEADER);
+            buf.putLong(crc.getValue());
+
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null) dir.mkdirs();
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) { out.write(buf.array()); }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // True when the pack was valid and is now in TextureAtlas and sounds
+        static boolean read(File file) {
+            if (!file.isFile()) return false;
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size < HEADER + 8 || size > Integer.MAX_VALUE) return false;
+                ByteBuffer buf = ByteBuffer.allocate((int)size);
+                while (buf.hasRemaining()) if (ch.read(buf) < 0) return false;
+                buf.flip();
+                if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return false;
+                int edge = buf.getInt(), shift = Integer.numberOfTrailingZeros(edge), levels = buf.getInt();
+                if (edge <= 0 || edge != 1 << shift || shift > TextureAtlas.MAX_SHIFT || levels != shift + 1) return false;
+                int offsetCount = buf.getInt(), atlasInts = buf.getInt(), soundCount = buf.getInt();
+                if (offsetCount != (TextureManager.COUNT + 1) * levels || soundCount != SoundEngine.EFFECTS.length) return false;
+                if (atlasInts != (TextureManager.COUNT + 1) * TextureAtlas.perTexture(shift) || HEADER + 4L*(offsetCount + atlasInts) + 8 > size) return false;
+
+                CRC32 crc = new CRC32();
+                ByteBuffer payload = buf.duplicate();
+                payload.position(HEADER).limit((int)size - 8);
+                crc.update(payload);
+                if (crc.getValue() != buf.getLong((int)size - 8)) return false;
+
+                int[] offsets = new int[offsetCount], data = new int[atlasInts];
+                buf.asIntBuffer().get(offsets).get(data);
+                buf.position(buf.position() + 4*(offsetCount + atlasInts));
+                byte[][] pcm = new byte[soundCount][];
+                for (int i=0; i<soundCount; i++) {
+                    int n = buf.getInt();
+                    if (n < 0 || n > buf.remaining() - 8) return false;
+                    buf.get(pcm[i] = new byte[n]);
+                }
+                for (int k=0; k<offsetCount; k++) { // Every mip block inside the atlas
+                    int o = offsets[k], edgeAt = edge >> (k % levels);
+                    if (o < 0 || o > atlasInts - edgeAt*edgeAt) return false;
+                }
+                TextureAtlas.set(shift, data, offsets);
+                sounds = pcm;
+                return true;
+            } catch (IOException | RuntimeException e) {
+                return false;
+            }
+        }
+    }
+
+    // Every texture plus its mip chain packed into one int[]. Textures are square with an edge of 1 << shift,
+    // set by the textures built or the pack read, so a high-res pack needs no code change. Level L of texture t is
+    // a (size>>L)^2 block at offset(t, L), box-filtered from level L-1; -1 (transparent) wins unless most texels
+    // are opaque.
+    static class TextureAtlas {
+        static final int MAX_SHIFT = 10;  // 1024x1024
+        static final int SPIKE_FLOOR = 9; // Spike texture with its cross-hatch baked in, so the pattern filters too
+        static int shift = 6, size = 1 << shift, levels = shift + 1; // Down to 1x1
+        static int[] data;
+        static int[] offsets;             // [tex*levels + level]
+
+        static int offset(int tex, int level) { return offsets[tex*levels + level]; }
+
+        // Mip level for a footprint of this many level-0 texels per screen pixel
+        static int level(double texelsPerPixel) {
+            if(texelsPerPixel < 2) return 0;
+            return Math.min(levels-1, 31 - Integer.numberOfLeadingZeros((int)texelsPerPixel));
+        }
+
+        // Ints one texture and its mips take at this edge
+        static int perTexture(int shift) {
+            int n = 0;
+            for(int l=0; l<=shift; l++) n += 1 << 2*(shift-l);
+            return n;
+        }
+
+        // Publishes a finished atlas; render threads see it once AssetPack.await returns
+        static void set(int shift, int[] data, int[] offsets) {
+            TextureAtlas.shift = shift; size = 1 << shift; levels = shift + 1;
+            TextureAtlas.data = data; TextureAtlas.offsets = offsets;
+        }
+
+        static void build(List<Texture> textures) {
+            int edge = textures.get(0).size, shift = Integer.numberOfTrailingZeros(edge), area = edge*edge, hatch = Math.max(1, edge/8);
+            for(Texture t : textures) if(t.size != edge || t.pixels.length != area) throw new IllegalArgumentException("Textures differ in size");
+            int[] spike = textures.get(8).pixels.clone();
+            for(int i=0; i<area; i++) {
+                int ftx = i%edge, fty = i/edge;
+                if((ftx+fty)%hatch==0 || (ftx-fty)%hatch==0) spike[i] = 0x111111;
+            }
+            int count = textures.size() + 1, levels = shift + 1, perTexture = perTexture(shift);
+            int[] data = new int[count*perTexture], offsets = new int[count*levels];
+            for(int t=0; t<count; t++) {
+                int base = t*perTexture;
+                System.arraycopy(t == SPIKE_FLOOR ? spike : textures.get(t).pixels, 0, data, base, area);
+                offsets[t*levels] = base;
+                for(int l=1, prev=base, at=base+area; l<levels; l++) {
+                    int size = edge>>l, src = size*2;
+                    for(int y=0; y<size; y++) for(int x=0; x<size; x++) {
+                        int i = prev + (y*2)*src + x*2;
+                        data[at + y*size + x] = filter(data[i], data[i+1], data[i+src], data[i+src+1]);
+                    }
+                    offsets[t*levels + l] = at;
+                    prev = at; at += size*size;
+                }
+            }
+            set(shift, data, offsets);
+        }
+
+        private static int filter(int a, int b, int c, int d) {
+            int n=0, r=0, g=0, bl=0;
+            for(int v : new int[]{a, b, c, d}) {
+                if(v == -1) continue;
+                n++; r += (v>>16)&0xFF; g += (v>>8)&0xFF; bl += v&0xFF;
+            }
+            if(n < 2) return -1;
+            return ((r/n)<<16) | ((g/n)<<8) | (bl/n);
+        }
+    }
+    
+    static class Texture {
+        int[] pixels; int size=64;
+        public Texture() { pixels = new int[64*64]; }
+        
+        static Texture genWall(Random rng) {
+            Texture t = new Texture();
+            for(int i=0; i<4096; i++) {
+                int y = i/64;
+                int col = 0xCEC8B4;
+                if(y%6==0) col = 0x9A8B7C;
+                if(y%6>2 && (i%64 + (y%6)*13)%4!=0) {
+                    double r=rng.nextDouble();
+                    if(r>0.75) col=0xFFCCCC; else if(r>0.5) col=0xEEEEFF;
+                    else if(r>0.25) col=0xEEDDCC; else col=0xAA9988;
+                }
+                t.pixels[i] = col;
+            }
+            return t;
+        }
+        static Texture genGate() {
+            Texture t = new Texture();
+            for(int i=0;i<4096;i++) t.pixels[i] = ((i%64)%8==0 || (i/64)%16==0) ? 0x222222 : 0x111111;
+            return t;
+        }
+        static Texture genFloor(int c, Random rng) {
+            Texture t = new Texture();
+            for(int i=0;i<4096;i++) {
+                int n = (int)(rng.nextDouble()*20);
+                int r=(c>>16)&0xFF; int g=(c>>8)&0xFF; int b=c&0xFF;
+                t.pixels[i] = ((r-n)<<16)|((g-n)<<8)|(b-n);
+            }
+            return t;
+        }
+        static Texture genSprite(int c) {
+            Texture t = new Texture();
+            for(int i=0;i<4096;i++) t.pixels[i] = -1;
+            for(int y=10;y<54;y++) for(int x=20;x<44;x++) t.pixels[x+y*64]=c;
+            return t;
         }
         static Texture genGlad(boolean atk, boolean stun) {
             Texture t = new Texture();
@@ -800,22 +2572,146 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
             }
             return t;
         }
-        static Texture genBlood() {
+        static Texture genBlood(Random rng) {
             Texture t = new Texture();
-            for(int i=0;i<4096;i++) if(Math.random()<0.3 && (i%64-32)*(i%64-32)+(i/64-32)*(i/64-32)<100) t.pixels[i]=0xAA0000; else t.pixels[i]=-1;
+            for(int i=0;i<4096;i++) if(rng.nextDouble()<0.3 && (i%64-32)*(i%64-32)+(i/64-32)*(i/64-32)<100) t.pixels[i]=0xAA0000; else t.pixels[i]=-1;
             return t;
         }
     }
 
-    private static class Screen {
+    // floor(num/den) for num stepping by a fixed amount: one divide per span, then an add and a compare per pixel.
+    // r is kept in [0, den), so a negative num floors too; callers place the span so its first texel is never negative
+    static final class SpanStepper {
+        int q, r, dq, dr, den;
+        void begin(long num, int den, int step) {
+            this.den = den;
+            q = (int)Math.floorDiv(num, den); r = (int)Math.floorMod(num, den);
+            dq = step / den; dr = step % den;
+        }
+        int next() {
+            int v = q;
+            q += dq; r += dr;
+            if (r >= den) { r -= den; q++; }
+            return v;
+        }
+    }
+
+    static class Screen {
+        private static final int MIN_BAND = 32; // Narrower bands cost more in scheduling than they save
+        private static ForkJoinPool pool;
+
+        private static final int TILE = 32; // Transpose block edge (32x32 ints = 4KB per side)
+        private static final int WALLS = 0, TRANSPOSE = 1, FLOOR = 2;
+
         int w, h; double[] zBuffer;
-        public Screen(int w, int h) { this.w=w; this.h=h; zBuffer=new double[w]; }
+        int[] wallTop, wallEnd; // Wall strip rows [top, end) per column
+        int[] floorStart; // First floor row below each wall strip (h = no floor)
+        int workers = 1;
+        // Walls rasterize into colBuf (x*h + y) and are tiled-transposed into pix; false writes pix directly
+        boolean columnMajor = true;
+        boolean mipmaps = true; // Sample TextureAtlas mips by distance; false always reads level 0
+        boolean distanceField = true; // Skip open space using the wall distances; false steps the DDA one cell at a time
+        int[] colBuf;
+        int[] stripeX, stripeTex; // Visible sprite columns, reused per sprite
+        final SpanStepper rows = new SpanStepper(), cols = new SpanStepper(); // Sprite texel steppers (walls keep one per band)
+        // Visible sprites this frame (batch index, camera depth, screen centre, sort key) and radix sort scratch
+        private static final double DEPTH_SCALE = 256; // Depth key units per tile
+        int[] visIdx = new int[256], visCenter = new int[256], visKey = new int[256], sortA = new int[256], sortB = new int[256];
+        double[] visDepth = new double[256];
+        final int[] radixCount = new int[256];
+
+        long wallNs, floorNs; // Last render(): clear + walls + transpose, then floor
+
+        // Per-frame inputs shared by the bands
+        private Camera fCam; private Level fLvl; private int[] fPix; private double fBob;
+
+        public Screen(int w, int h) {
+            this.w=w; this.h=h; zBuffer=new double[w];
+            wallTop=new int[w]; wallEnd=new int[w]; floorStart=new int[w];
+            colBuf=new int[w*h];
+            stripeX=new int[w]; stripeTex=new int[w];
+        }
+
+        public void setWorkers(int n) {
+            workers = Math.max(1, n);
+            if (workers > 1 && (pool == null || pool.getParallelism() != workers)) {
+                if (pool != null) pool.shutdown();
+                pool = new ForkJoinPool(workers);
+            }
+        }
+
         public void render(Camera cam, Level lvl, int[] pix, double bob) {
+            long t0 = System.nanoTime();
             // Sky & Floor
             for(int i=0; i<pix.length/2; i++) pix[i] = 0x87CEEB;
             for(int i=pix.length/2; i<pix.length; i++) pix[i] = 0xD2B48C;
 
-            for(int x=0; x<w; x++) {
+            if (workers <= 1 || w < MIN_BAND * 2) {
+                castColumns(cam, lvl, pix, bob, 0, w);
+                if (columnMajor) transpose(pix, 0, h);
+                long t1 = System.nanoTime();
+                castFloor(cam, lvl, pix, bob, floorTop(), h);
+                wallNs = t1 - t0; floorNs = System.nanoTime() - t1;
+                return;
+            }
+            fCam = cam; fLvl = lvl; fPix = pix; fBob = bob;
+            try {
+                pool.invoke(new Band(0, w, Math.max(MIN_BAND, (w + workers - 1) / workers), WALLS));
+                int rows = Math.max(TILE, (h + workers - 1) / workers / TILE * TILE);
+                if (columnMajor) pool.invoke(new Band(0, h, rows, TRANSPOSE));
+                long t1 = System.nanoTime();
+                int top = floorTop();
+                if (top < h) pool.invoke(new Band(top, h, Math.max(8, (h - top + workers - 1) / workers), FLOOR));
+                wallNs = t1 - t0; floorNs = System.nanoTime() - t1;
+            } finally {
+                fCam = null; fLvl = null; fPix = null;
+            }
+        }
+
+        private int floorTop() {
+            int top = h;
+            for(int x=0; x<w; x++) if(floorStart[x] < top) top = floorStart[x];
+            return top;
+        }
+
+        // Splits [from, to) until each piece is one band. Wall bands own pix columns and zBuffer slots,
+        // transpose and floor bands own pix rows
+        @SuppressWarnings("serial") // Never serialized; RecursiveAction is only Serializable by inheritance
+        private class Band extends RecursiveAction {
+            final int from, to, width, pass;
+            Band(int from, int to, int width, int pass) { this.from=from; this.to=to; this.width=width; this.pass=pass; }
+            protected void compute() {
+                if (to - from <= width) {
+                    if (pass == WALLS) castColumns(fCam, fLvl, fPix, fBob, from, to);
+                    else if (pass == TRANSPOSE) transpose(fPix, from, to);
+                    else castFloor(fCam, fLvl, fPix, fBob, from, to);
+                    return;
+                }
+                int mid = from + ((to - from) / width / 2) * width;
+                if (mid == from) mid = from + width;
+                invokeAll(new Band(from, mid, width, pass), new Band(mid, to, width, pass));
+            }
+        }
+
+        // Copies wall strips from colBuf into rows [from, to) of pix, one TILE x TILE block at a time
+        private void transpose(int[] pix, int from, int to) {
+            for(int by=from; by<to; by+=TILE) {
+                int byEnd = Math.min(by+TILE, to);
+                for(int bx=0; bx<w; bx+=TILE) {
+                    int bxEnd = Math.min(bx+TILE, w);
+                    for(int x=bx; x<bxEnd; x++) {
+                        int y0 = Math.max(by, wallTop[x]), y1 = Math.min(byEnd, wallEnd[x]);
+                        int src = x*h;
+                        for(int y=y0; y<y1; y++) pix[x+y*w] = colBuf[src+y];
+                    }
+                }
+            }
+        }
+
+        void castColumns(Camera cam, Level lvl, int[] pix, double bob, int from, int to) {
+            SpanStepper span = new SpanStepper();
+            int texShift = TextureAtlas.shift, texSize = 1 << texShift;
+            for(int x=from; x<to; x++) {
                 double cx = 2*x/(double)w - 1;
                 double rdx = cam.xDir + cam.xPlane*cx;
                 double rdy = cam.yDir + cam.yPlane*cx;
@@ -827,9 +2723,21 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
                 if(rdx<0) { sx=-1; sdx=(cam.xPos-mx)*ddx; } else { sx=1; sdx=(mx+1.0-cam.xPos)*ddx; }
                 if(rdy<0) { sy=-1; sdy=(cam.yPos-my)*ddy; } else { sy=1; sdy=(my+1.0-cam.yPos)*ddy; }
                 
-                while(true) {
+                WallField walls = lvl.walls;
+                for(int d = walls.dist(mx, my); ; ) {
+                    // Every cell within r of this one is open, so take all crossings that stay inside that square at once.
+                    // The trailing axis is rounded down; the DDA below picks up any crossing that leaves out
+                    int r = distanceField ? d - 1 : 0;
+                    if(r > 1) {
+                        double tEnd = Math.min(sdx + r*ddx, sdy + r*ddy);
+                        int kx = Math.min(r, (int)Math.max(0, (tEnd - sdx)/ddx));
+                        int ky = Math.min(r, (int)Math.max(0, (tEnd - sdy)/ddy));
+                        if(sdx + r*ddx <= sdy + r*ddy) kx = r; else ky = r;
+                        if(kx > 0) { mx += sx*kx; sdx += kx*ddx; } // Guarded: 0*Infinity is NaN on axis-aligned rays
+                        if(ky > 0) { my += sy*ky; sdy += ky*ddy; }
+                    }
                     if(sdx<sdy) { sdx+=ddx; mx+=sx; side=0; } else { sdy+=ddy; my+=sy; side=1; }
-                    if(lvl.isWall(mx, my)) break;
+                    if((d = walls.dist(mx, my)) == 0) break;
                 }
                 
                 pwd = (side==0) ? (mx-cam.xPos+(1-sx)/2)/rdx : (my-cam.yPos+(1-sy)/2)/rdy;
@@ -840,61 +2748,100 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
                 int end = lh/2 + h/2 + (int)bob;
                 if(start<0) start=0; if(end>=h) end=h-1;
                 
-                Texture t = TextureManager.textures.get(0);
+                int mip = mipmaps ? TextureAtlas.level((double)texSize/Math.max(1, lh)) : 0;
+                int[] atlas = TextureAtlas.data;
+                int base = TextureAtlas.offset(0, mip), rowShift = texShift - mip;
                 double wx = (side==0) ? cam.yPos+pwd*rdy : cam.xPos+pwd*rdx;
                 wx -= Math.floor(wx);
-                int tx = (int)(wx*64);
-                if((side==0 && rdx>0) || (side==1 && rdy<0)) tx = 63-tx;
+                int tx = (int)(wx*texSize);
+                if((side==0 && rdx>0) || (side==1 && rdy<0)) tx = texSize-1-tx;
                 
-                for(int y=start; y<end; y++) {
-                    int d = y*256 - h*128 + lh*128 - (int)bob*256;
-                    int ty = ((d*64)/lh)/256;
-                    int c = t.pixels[64*ty+tx];
+                int[] dst = columnMajor ? colBuf : pix;
+                int stride = columnMajor ? 1 : w;
+                int idx = columnMajor ? x*h+start : x+start*w;
+                // Texture row is ((y*256 - (h/2)*256 + lh*128 - bob*256)*texSize / lh) / 256. Measured from the same h/2
+                // that placed start, so the first row is texel 0 even when h is odd and lh even
+                span.begin((long)texSize*(start*256 - (h/2)*256 + lh*128 - (int)bob*256), Math.max(1, lh)*256, texSize*256);
+                for(int y=start; y<end; y++, idx+=stride) {
+                    int ty = span.next();
+                    int c = atlas[base + ((ty>>mip)<<rowShift) + (tx>>mip)];
                     if(side==1) c = (c>>1)&8355711;
-                    pix[x+y*w] = c;
+                    dst[idx] = c;
                 }
+                wallTop[x] = start; wallEnd[x] = end;
                 
-                if(end<h) {
-                    double distWall = pwd;
-                    double distPlayer = 0.0;
-                    if(end<0) end=h;
-                    for(int y=end+1; y<h; y++) {
-                        double currentDist = h / (2.0*y - h - 2.0*bob);
-                        double weight = (currentDist - distPlayer)/(distWall - distPlayer);
-                        double cfx = weight*((side==0)?(mx+wx):(mx+(1.0-sx)/2.0)) + (1.0-weight)*cam.xPos;
-                        double cfy = weight*((side==0)?(my+(1.0-sy)/2.0):(my+wx)) + (1.0-weight)*cam.yPos;
-                        
-                        int ftx = (int)(cfx*64)%64; int fty = (int)(cfy*64)%64;
-                        if(ftx<0) ftx+=64; if(fty<0) fty+=64;
-                        
-                        int col;
-                        if(lvl.map[(int)cfx][(int)cfy] == 2) {
-                            // IMPROVED SPIKE VISUALS
-                            col = TextureManager.textures.get(8).pixels[64*fty+ftx];
-                            // Cross-hatch metallic pattern
-                            if((ftx+fty)%8==0 || (ftx-fty)%8==0) col = 0x111111; 
-                        } else {
-                            col = TextureManager.textures.get(2).pixels[64*fty+ftx];
-                            if(Math.abs(cfx%5.0)<0.1 || Math.abs(cfy%5.0)<0.1) col = (col>>1)&8355711;
-                        }
-                        pix[x+y*w] = col;
+                // Floor below the strip is drawn row by row in castFloor
+                floorStart[x] = (end<0) ? h : end+1;
+            }
+        }
+
+        // Horizontal floor pass: one distance per row, world position stepped across the row, sequential writes
+        private void castFloor(Camera cam, Level lvl, int[] pix, double bob, int from, int to) {
+            int[] atlas = TextureAtlas.data;
+            TileMap tiles = lvl.tiles;
+            double rdx0 = cam.xDir - cam.xPlane, rdy0 = cam.yDir - cam.yPlane; // Ray through column 0
+            double pdx = 2*cam.xPlane/w, pdy = 2*cam.yPlane/w;                 // Ray change per column
+            double planeLen = Math.sqrt(cam.xPlane*cam.xPlane + cam.yPlane*cam.yPlane);
+            int b = (int)bob; // Whole pixels, as castColumns placed the wall ends and floorStart
+            int texShift = TextureAtlas.shift, texSize = 1 << texShift, texMask = texSize - 1;
+
+            for(int y=from; y<to; y++) {
+                double rowDist = h / (2.0*y - h - 2.0*b);
+                double fx = cam.xPos + rowDist*rdx0, fy = cam.yPos + rowDist*rdy0;
+                double stepX = rowDist*pdx, stepY = rowDist*pdy;
+                int row = y*w;
+                // Footprint is the geometric mean of the texels per pixel across the row and down the screen
+                int mip = 0;
+                if(mipmaps) mip = TextureAtlas.level(Math.sqrt(texSize*rowDist*2*planeLen/w * texSize*2*rowDist*rowDist/h));
+                int sand = TextureAtlas.offset(2, mip), spike = TextureAtlas.offset(TextureAtlas.SPIKE_FLOOR, mip);
+                int rowShift = texShift - mip;
+
+                for(int x=0; x<w; x++, fx+=stepX, fy+=stepY) {
+                    if(floorStart[x] > y) continue;
+
+                    int texel = (((int)(fy*texSize) & texMask) >> mip << rowShift) + (((int)(fx*texSize) & texMask) >> mip);
+                    int col, tx = (int)fx, ty = (int)fy;
+                    // The first row under a wall can land just past it, and past the map edge on open-edged arenas
+                    if(tx >= 0 && ty >= 0 && tx < tiles.w && ty < tiles.h && tiles.get(tx, ty) == 2) {
+                        // IMPROVED SPIKE VISUALS (cross-hatch is baked into the atlas copy)
+                        col = atlas[spike + texel];
+                    } else {
+                        col = atlas[sand + texel];
+                        if(Math.abs(fx%5.0)<0.1 || Math.abs(fy%5.0)<0.1) col = (col>>1)&8355711;
                     }
+                    pix[row+x] = col;
                 }
             }
         }
-        public void renderSprites(Camera c, List<Sprite> sprites, int[] pix, double bob) {
-            sprites.sort((s1, s2) -> Double.compare(
-                (c.xPos-s2.x)*(c.xPos-s2.x)+(c.yPos-s2.y)*(c.yPos-s2.y),
-                (c.xPos-s1.x)*(c.xPos-s1.x)+(c.yPos-s1.y)*(c.yPos-s1.y)
-            ));
-            for(Sprite s : sprites) {
-                double sx = s.x - c.xPos; double sy = s.y - c.yPos;
-                double inv = 1.0/(c.xPlane*c.yDir - c.xDir*c.yPlane);
-                double tx = inv * (c.yDir*sx - c.xDir*sy);
+
+        public void renderSprites(Camera c, SpriteBatch sprites, int[] pix, double bob) {
+            int count = sprites.count;
+            if(visIdx.length < count) growSpriteScratch(count);
+            double inv = 1.0/(c.xPlane*c.yDir - c.xDir*c.yPlane);
+            int texShift = TextureAtlas.shift, texSize = 1 << texShift;
+
+            // Transform and cull first: behind the camera, off screen, or behind walls in every column it covers
+            int visible = 0;
+            for(int i=0; i<count; i++) {
+                double sx = sprites.x[i] - c.xPos; double sy = sprites.y[i] - c.yPos;
                 double ty = inv * (-c.yPlane*sx + c.xPlane*sy);
                 if(ty <= 0) continue;
-                
+                double tx = inv * (c.yDir*sx - c.xDir*sy);
                 int scx = (int)((w/2)*(1 + tx/ty));
+                int sw = Math.abs((int)(h/ty));
+                int x = Math.max(1, -sw/2 + scx), endX = Math.min(w-1, sw/2 + scx);
+                while(x < endX && ty >= zBuffer[x]) x++;
+                if(x >= endX) continue;
+                visIdx[visible] = i; visDepth[visible] = ty; visCenter[visible] = scx;
+                visKey[visible++] = 0xFFFF - (int)Math.min(0xFFFF, ty*DEPTH_SCALE); // Far sorts first
+            }
+
+            int[] order = sortByDepth(visible);
+            for(int o=0; o<visible; o++) {
+                int v = order[o], i = visIdx[v];
+                double ty = visDepth[v];
+                int scx = visCenter[v];
+                
                 int sh = Math.abs((int)(h/ty));
                 int startY = -sh/2 + h/2 + (int)bob; if(startY<0) startY=0;
                 int endY = sh/2 + h/2 + (int)bob; if(endY>=h) endY=h-1;
@@ -902,78 +2849,247 @@ public class GladiatorGame extends JFrame implements Runnable, KeyListener, Mous
                 int startX = -sw/2 + scx; if(startX<0) startX=0;
                 int endX = sw/2 + scx; if(endX>=w) endX=w-1;
                 
-                Texture t;
-                if(s instanceof Enemy) {
-                    Enemy e=(Enemy)s; 
-                    if(e.isDead) t=TextureManager.textures.get(6);
-                    else if(e.state==Enemy.State.STUNNED) t=TextureManager.textures.get(7);
-                    else if(e.state==Enemy.State.ATTACK) t=TextureManager.textures.get(5);
-                    else t=TextureManager.textures.get(4);
-                } else if(s instanceof Particle) t=TextureManager.textures.get(6);
-                else t=TextureManager.textures.get(s.textureId);
+                int mip = mipmaps ? TextureAtlas.level((double)texSize/Math.max(1, sh)) : 0;
+                int[] atlas = TextureAtlas.data;
+                int base = TextureAtlas.offset(sprites.tex[i], mip), rowShift = texShift - mip;
                 
-                for(int stripe=startX; stripe<endX; stripe++) {
-                    int texX = (int)(256*(stripe-(-sw/2+scx))*64/sw)/256;
-                    if(ty>0 && stripe>0 && stripe<w && ty<zBuffer[stripe]) {
-                        for(int y=startY; y<endY; y++) {
-                            int d = y*256 - h*128 + sh*128 - (int)bob*256;
-                            int texY = ((d*64)/sh)/256;
-                            int col = t.pixels[64*texY+texX];
-                            if(col!=-1) pix[stripe+y*w] = col;
+                // Same stepping as the wall rows; columns step texSize/sw texels from the sprite's left edge
+                long rowNum = (long)texSize*(startY*256 - (h/2)*256 + sh*128 - (int)bob*256), colNum = texSize*256L*(startX-(-sw/2+scx));
+                int den = Math.max(1, sh)*256, colDen = Math.max(1, sw)*256;
+                if (!columnMajor) {
+                    cols.begin(colNum, colDen, texSize*256);
+                    for(int stripe=startX; stripe<endX; stripe++) {
+                        int texX = cols.next();
+                        if(ty>0 && stripe>0 && stripe<w && ty<zBuffer[stripe]) {
+                            rows.begin(rowNum, den, texSize*256);
+                            for(int y=startY; y<endY; y++) {
+                                int texY = rows.next();
+                                int col = atlas[base + ((texY>>mip)<<rowShift) + (texX>>mip)];
+                                if(col!=-1) pix[stripe+y*w] = col;
+                            }
                         }
                     }
+                    continue;
+                }
+
+                // Collect the unoccluded stripes once, then draw the sprite row by row so writes stay sequential
+                int n = 0;
+                cols.begin(colNum, colDen, texSize*256);
+                for(int stripe=startX; stripe<endX; stripe++) {
+                    int texX = cols.next();
+                    if(stripe>0 && stripe<w && ty<zBuffer[stripe]) {
+                        stripeX[n] = stripe;
+                        stripeTex[n++] = texX >> mip;
+                    }
+                }
+                if(n == 0) continue;
+                rows.begin(rowNum, den, texSize*256);
+                for(int y=startY; y<endY; y++) {
+                    int texRow = base + (rows.next() >> mip << rowShift);
+                    int row = y*w;
+                    for(int k=0; k<n; k++) {
+                        int col = atlas[texRow+stripeTex[k]];
+                        if(col!=-1) pix[row+stripeX[k]] = col;
+                    }
                 }
             }
         }
+
+        // Stable LSD radix sort (two 8-bit passes) of visible sprite slots by visKey
+        private int[] sortByDepth(int n) {
+            int[] src = sortA, dst = sortB;
+            for(int k=0; k<n; k++) src[k] = k;
+            for(int shift=0; shift<16; shift+=8) {
+                Arrays.fill(radixCount, 0);
+                for(int k=0; k<n; k++) radixCount[(visKey[src[k]]>>shift) & 255]++;
+                for(int b=0, sum=0; b<256; b++) { int t = radixCount[b]; radixCount[b] = sum; sum += t; }
+                for(int k=0; k<n; k++) { int v = src[k]; dst[radixCount[(visKey[v]>>shift) & 255]++] = v; }
+                int[] t = src; src = dst; dst = t;
+            }
+            return src;
+        }
+
+        private void growSpriteScratch(int n) {
+            n = Math.max(n, visIdx.length*2);
+            visIdx = new int[n]; visCenter = new int[n]; visKey = new int[n]; visDepth = new double[n];
+            sortA = new int[n]; sortB = new int[n];
+        }
     }
 
-    private static class Particle extends Sprite { double vx, vy; int life; }
-    private class ParticleSystem {
-        List<Particle> particles = new ArrayList<>();
-        void spawnBlood(double x, double y, double z) { 
-            Particle p = new Particle(); p.x=x; p.y=y; p.vx=(Math.random()-0.5)*0.1; p.vy=(Math.random()-0.5)*0.1; p.life=20; 
-            particles.add(p);
+    // Flat sprite list rebuilt every frame into the same arrays: world position and texture id
+    static class SpriteBatch {
+        double[] x = new double[256], y = new double[256];
+        int[] tex = new int[256];
+        int count;
+        void clear() { count = 0; }
+        void add(double sx, double sy, int t) {
+            if(count == x.length) {
+                x = Arrays.copyOf(x, count*2); y = Arrays.copyOf(y, count*2); tex = Arrays.copyOf(tex, count*2);
+            }
+            x[count] = sx; y[count] = sy; tex[count++] = t;
+        }
+    }
+
+    // Fixed-capacity ring of particles in primitive arrays. Every particle gets the same lifetime, so
+    // the oldest is always at head and expiry just advances it; when full, a spawn replaces the oldest.
+    static class ParticleSystem {
+        static final int CAPACITY = 4096; // Power of two
+        static final int LIFE = 20;
+        final double[] x = new double[CAPACITY], y = new double[CAPACITY], vx = new double[CAPACITY], vy = new double[CAPACITY];
+        final int[] life = new int[CAPACITY];
+        int head, count;
+        final Random rng; // The session's
+
+        ParticleSystem(Random rng) { this.rng = rng; }
+
+        void spawnBlood(double px, double py, double z) { 
+            if(count == CAPACITY) { head = (head+1) & (CAPACITY-1); count--; }
+            int i = (head+count++) & (CAPACITY-1);
+            x[i]=px; y[i]=py; vx[i]=(rng.nextDouble()-0.5)*0.1; vy[i]=(rng.nextDouble()-0.5)*0.1; life[i]=LIFE; 
         }
         void update() {
-            Iterator<Particle> it = particles.iterator();
-            while(it.hasNext()) { Particle p = it.next(); p.x+=p.vx; p.y+=p.vy; if(--p.life<=0) it.remove(); }
-        }
-    }
-
-    private static class SoundEngine {
-        void playWoosh() { play(150, 100, "NOISE"); }
-        void playHit() { play(60, 100, "THUD"); }
-        void playTrap() { play(800, 200, "CLANG"); }
-        void playStun() { play(300, 300, "WOBBLE"); }
-        void playClang() { play(600, 400, "METAL"); }
-        void playGrunt() { play(100, 200, "LOW"); }
-        void playHurt() { play(200, 300, "SAW"); }
-        void playCrit() { play(800, 500, "RING"); }
-        void playDeath() { play(100, 800, "LOW"); }
-        void playHorn() { play(300, 1500, "SAW"); }
-        
-        void play(int f, int d, String t) {
-            new Thread(() -> {
-                try {
-                    AudioFormat af = new AudioFormat(44100f, 8, 1, true, false);
-                    SourceDataLine sdl = AudioSystem.getSourceDataLine(af);
-                    sdl.open(af); sdl.start();
-                    byte[] b = new byte[d*44];
-                    for(int i=0;i<b.length;i++) {
-                        double v=0, dt=i/44100.0;
-                        if(t.equals("NOISE")) v=(Math.random()-0.5);
-                        else if(t.equals("THUD")) v=(Math.random()-0.5)*Math.exp(-dt*20);
-                        else if(t.equals("CLANG")) v=Math.sin(dt*f*2*Math.PI)*Math.exp(-dt*10);
-                        else if(t.equals("WOBBLE")) v=Math.sin(dt*f*2*Math.PI + Math.sin(dt*20)*10);
-                        else if(t.equals("METAL")) v=Math.sin(dt*f*2*Math.PI + Math.sin(dt*f*2.5)*5);
-                        else if(t.equals("RING")) v=Math.sin(dt*f*2*Math.PI)*Math.exp(-dt*2);
-                        else if(t.equals("LOW")) v=Math.sin(dt*f*2*Math.PI);
-                        else v=((dt*f)%1.0)-0.5;
-                        b[i]=(byte)(v*80);
-                    }
-                    sdl.write(b,0,b.length); sdl.drain(); sdl.close();
-                } catch(Exception e){}
-            }).start();
+            for(int k=0; k<count; k++) {
+                int i = (head+k) & (CAPACITY-1);
+                x[i]+=vx[i]; y[i]+=vy[i]; life[i]--;
+            }
+            while(count > 0 && life[head] <= 0) { head = (head+1) & (CAPACITY-1); count--; }
+        }
+        void submitSprites(SpriteBatch batch) {
+            for(int k=0; k<count; k++) {
+                int i = (head+k) & (CAPACITY-1);
+                batch.add(x[i], y[i], 6);
+            }
+        }
+    }
+
+    // One long-lived output line fed by a mixer thread. Effects are synthesized once into PCM buffers
+    // and played through a fixed voice pool; the simulation thread only posts effect ids into a ring.
+    static class SoundEngine {
+        enum Wave { NOISE, THUD, CLANG, WOBBLE, METAL, RING, LOW, SAW }
+        enum Effect {
+            WOOSH(150, 100, Wave.NOISE, 1), HIT(60, 100, Wave.THUD, 2), TRAP(800, 200, Wave.CLANG, 3),
+            STUN(300, 300, Wave.WOBBLE, 1), CLANG(600, 400, Wave.METAL, 3), GRUNT(100, 200, Wave.LOW, 0),
+            HURT(200, 300, Wave.SAW, 3), CRIT(800, 500, Wave.RING, 4), DEATH(100, 800, Wave.LOW, 5),
+            HORN(300, 1500, Wave.SAW, 5);
+            final int freq, millis, priority; final Wave wave;
+            Effect(int f, int d, Wave w, int p) { freq=f; millis=d; wave=w; priority=p; }
+        }
+        static final Effect[] EFFECTS = Effect.values();
+
+        private static final float RATE = 44100f;
+        private static final int CHUNK = 256;   // Samples per mix pass (~6 ms)
+        private static final int VOICES = 16;
+        private static final int RING = 64;     // Pending effects; power of two
+
+        boolean muted = false;
+        private boolean started, available;
+
+        // Never opens a line; safe to share between headless simulations on any thread
+        static SoundEngine silent() { SoundEngine s = new SoundEngine(); s.muted = true; return s; }
+        private byte[][] pcm;
+        // Single-producer ring from the simulation thread to the mixer
+        private final int[] ring = new int[RING];
+        private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+        // Voice pool, mixer thread only
+        private final byte[][] voiceData = new byte[VOICES][];
+        private final int[] voicePos = new int[VOICES], voicePriority = new int[VOICES];
+
+        void playWoosh() { play(Effect.WOOSH); }
+        void playHit() { play(Effect.HIT); }
+        void playTrap() { play(Effect.TRAP); }
+        void playStun() { play(Effect.STUN); }
+        void playClang() { play(Effect.CLANG); }
+        void playGrunt() { play(Effect.GRUNT); }
+        void playHurt() { play(Effect.HURT); }
+        void playCrit() { play(Effect.CRIT); }
+        void playDeath() { play(Effect.DEATH); }
+        void playHorn() { play(Effect.HORN); }
+
+        void play(Effect e) {
+            if (muted) return;
+            if (!started) start();
+            if (!available) return;
+            long t = tail.get();
+            if (t - head.get() >= RING) return; // Mixer is behind; drop rather than block the game
+            ring[(int)(t & (RING - 1))] = e.ordinal();
+            tail.lazySet(t + 1);
+        }
+
+        private void start() {
+            started = true;
+            AssetPack.await();
+            pcm = AssetPack.sounds;
+            try {
+                AudioFormat af = new AudioFormat(RATE, 8, 1, true, false);
+                SourceDataLine line = AudioSystem.getSourceDataLine(af);
+                line.open(af, CHUNK * 8);
+                line.start();
+                Thread t = new Thread(() -> mixLoop(line), "AudioMixer");
+                t.setDaemon(true);
+                t.start();
+                available = true;
+            } catch (Exception e) {}
+        }
+
+        // Seeded per effect, so effects can be synthesized in any order
+        static byte[] synthesize(Effect e) {
+            Random noise = new Random(44100 + e.ordinal());
+            int f = e.freq;
+            byte[] b = new byte[e.millis*44];
+            for(int i=0;i<b.length;i++) {
+                double v, dt=i/44100.0;
+                switch(e.wave) {
+                    case NOISE: v=(noise.nextDouble()-0.5); break;
+                    case THUD: v=(noise.nextDouble()-0.5)*Math.exp(-dt*20); break;
+                    case CLANG: v=Math.sin(dt*f*2*Math.PI)*Math.exp(-dt*10); break;
+                    case WOBBLE: v=Math.sin(dt*f*2*Math.PI + Math.sin(dt*20)*10); break;
+                    case METAL: v=Math.sin(dt*f*2*Math.PI + Math.sin(dt*f*2.5)*5); break;
+                    case RING: v=Math.sin(dt*f*2*Math.PI)*Math.exp(-dt*2); break;
+                    case LOW: v=Math.sin(dt*f*2*Math.PI); break;
+                    default: v=((dt*f)%1.0)-0.5;
+                }
+                b[i]=(byte)(v*80);
+            }
+            return b;
+        }
+
+        private void mixLoop(SourceDataLine line) {
+            int[] acc = new int[CHUNK];
+            byte[] out = new byte[CHUNK];
+            while (true) {
+                for (long h = head.get(), t = tail.get(); h < t; h++) {
+                    startVoice(ring[(int)(h & (RING - 1))]);
+                    head.lazySet(h + 1);
+                }
+
+                Arrays.fill(acc, 0);
+                for (int v=0; v<VOICES; v++) {
+                    byte[] d = voiceData[v];
+                    if (d == null) continue;
+                    int pos = voicePos[v], n = Math.min(CHUNK, d.length - pos);
+                    for (int i=0; i<n; i++) acc[i] += d[pos + i];
+                    voicePos[v] = pos + n;
+                    if (voicePos[v] >= d.length) voiceData[v] = null;
+                }
+                for (int i=0; i<CHUNK; i++) out[i] = (byte)Math.max(-128, Math.min(127, acc[i]));
+                line.write(out, 0, CHUNK); // Blocks until the device has room, which paces this loop
+            }
+        }
+
+        // Free voice if any, otherwise steal the lowest-priority (then most finished) one no more important than e
+        private void startVoice(int id) {
+            Effect e = EFFECTS[id];
+            int slot = -1;
+            for (int v=0; v<VOICES; v++) {
+                if (voiceData[v] == null) { slot = v; break; }
+                if (voicePriority[v] > e.priority) continue;
+                if (slot < 0 || voicePriority[v] < voicePriority[slot]
+                        || (voicePriority[v] == voicePriority[slot] && voicePos[v] > voicePos[slot])) slot = v;
+            }
+            if (slot < 0) return;
+            voiceData[slot] = pcm[id];
+            voicePos[slot] = 0;
+            voicePriority[slot] = e.priority;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+// Everything one frame/tick needs, without a JFrame, on a seeded level so repeated runs do identical work.
+// Shared by the tests, GladiatorBench and the JMH cases
+public class GameFixture {
+    public static final long SEED = 1234;
+    public static final int[][] PRESETS = {{800,600},{1024,768},{1280,720},{1920,1080}};
+    public static final int[] ENEMY_COUNTS = {3, 30, 300, 3000};
+
+    GladiatorGame.Level level; GladiatorGame.Camera camera; GladiatorGame.Player player; GladiatorGame.ParticleSystem particles;
+    GladiatorGame.CombatSystem combat; GladiatorGame.Screen screen; int[] pix;
+    GladiatorGame.SpriteBatch batch = new GladiatorGame.SpriteBatch();
+
+    GameFixture(int w, int h, int enemies) {
+        level = new GladiatorGame.Level(128, 128, SEED);
+        populate(level, enemies);
+        camera = new GladiatorGame.Camera(64.5, 64.5, 1, 0, 0.66);
+        player = new GladiatorGame.Player(camera);
+        particles = new GladiatorGame.ParticleSystem(level.rng);
+        GladiatorGame.SoundEngine sound = new GladiatorGame.SoundEngine(); sound.muted = true;
+        combat = new GladiatorGame.CombatSystem(player, level, sound, particles);
+        screen = new GladiatorGame.Screen(w, h);
+        pix = new int[w*h];
+    }
+
+    // Same submission as GladiatorGame.render
+    GladiatorGame.SpriteBatch submit() {
+        batch.clear();
+        level.submitSprites(batch);
+        particles.submitSprites(batch);
+        return batch;
+    }
+
+    // Every enemy's AI once; returns how many moved
+    int tickAI() {
+        int moved = 0;
+        for (int i=0; i<level.enemies.count; i++) if (combat.updateEnemyAI(i)) moved++;
+        return moved;
+    }
+
+    static void populate(GladiatorGame.Level l, int n) {
+        while (l.enemies.count < n) l.spawnWave(n - l.enemies.count);
+        while (l.enemies.count > n) l.removeEnemy(l.enemies.count - 1);
+    }
+
+    // A MAX_SIDE square map holding an ellipse, with spikes scattered over its middle
+    static GladiatorGame.TileMap bigArena() {
+        int n = GladiatorGame.TileMap.MAX_SIDE;
+        GladiatorGame.TileMap big = new GladiatorGame.TileMap(n, n);
+        for (int y=0; y<n; y++) for (int x=0; x<n; x++) {
+            double dx = (x - n/2) / (n*0.45), dy = (y - n/2) / (n*0.3);
+            if (dx*dx + dy*dy >= 1) big.set(x, y, 1);
+            else if ((x*7 + y*13) % 97 == 0 && Math.abs(x - n/2) < 256 && Math.abs(y - n/2) < 256) big.set(x, y, 2);
+        }
+        return big;
+    }
+
+    // Replaces the arena with an n x n ellipse filling most of the map and puts the camera in the middle
+    static void openArena(GameFixture f, int n) {
+        GladiatorGame.Level l = new GladiatorGame.Level(n, n, SEED);
+        for (int x=0; x<n; x++) for (int y=0; y<n; y++) {
+            double dx = (x - n/2) / (n*0.45), dy = (y - n/2) / (n*0.3);
+            l.tiles.set(x, y, dx*dx + dy*dy >= 1 ? 1 : 0);
+        }
+        l.rebuildTiles();
+        f.level = l;
+        f.camera.xPos = n/2 + 0.5; f.camera.yPos = n/2 + 0.5;
+    }
+}
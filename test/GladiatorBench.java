@@ -0,0 +1,370 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+// Headless harness: java -cp target/classes:target/test-classes GladiatorGame --bench [name-filter]
+// Seeded level and fixed op counts, so repeated runs do identical work. B/op counts the calling thread only.
+// The JMH suite in bench/ covers the hot cases with forks and proper warmup; this one is the quick look
+public class GladiatorBench {
+    static final int BATCHES = 10;
+    static volatile long sink;
+
+    interface Op { void run(); }
+
+    public static void main(String[] args) { run(args.length > 0 ? args[0] : ""); }
+
+    public static void run(String filter) {
+        GladiatorGame.TextureManager.init();
+        System.out.printf("%-32s %12s %10s %12s %12s%n", "case", "ns/op", "+-", "min", "B/op");
+
+        for (int[] r : GameFixture.PRESETS) {
+            String res = r[0] + "x" + r[1];
+            GameFixture f = new GameFixture(r[0], r[1], 3);
+            for (int threads : GladiatorGame.renderThreads > 1 ? new int[]{1, GladiatorGame.renderThreads} : new int[]{1}) {
+                f.screen.setWorkers(threads);
+                measure("render/t" + threads + "/" + res, filter, 60, 20, () -> {
+                    f.camera.rotate(0.01);
+                    f.screen.render(f.camera, f.level, f.pix, 0);
+                    sink += f.pix[f.pix.length/2];
+                });
+            }
+            for (int n : GameFixture.ENEMY_COUNTS) {
+                GameFixture sf = new GameFixture(r[0], r[1], n);
+                sf.screen.setWorkers(GladiatorGame.renderThreads);
+                sf.screen.render(sf.camera, sf.level, sf.pix, 0);
+                measure("sprites/" + res + "/e" + n, filter, 60, 20, () -> {
+                    sf.screen.renderSprites(sf.camera, sf.submit(), sf.pix, 0);
+                    sink += sf.pix[sf.pix.length/2];
+                });
+            }
+        }
+
+        // Wall pass only: one DDA cell at a time vs distance-field skipping, in the stock arena and a wide open one
+        for (int[] r : GameFixture.PRESETS) {
+            String res = r[0] + "x" + r[1];
+            for (int size : new int[]{128, 512}) {
+                GameFixture f = new GameFixture(r[0], r[1], 0);
+                if (size != 128) GameFixture.openArena(f, size);
+                f.screen.setWorkers(1);
+                for (boolean field : new boolean[]{false, true}) {
+                    f.screen.distanceField = field;
+                    measure("raycast/" + (field ? "field/" : "step/") + res + "/m" + size, filter, 60, 20, () -> {
+                        f.camera.rotate(0.01);
+                        f.screen.castColumns(f.camera, f.level, f.pix, 0, 0, f.screen.w);
+                        sink += (long)f.screen.zBuffer[f.screen.w/2];
+                    });
+                }
+            }
+        }
+
+        // Framebuffer layout before/after: direct column writes vs column-major scratch + tiled transpose
+        for (int[] r : GameFixture.PRESETS) {
+            String res = r[0] + "x" + r[1];
+            GameFixture f = new GameFixture(r[0], r[1], 300);
+            f.screen.setWorkers(1);
+            for (boolean columnMajor : new boolean[]{false, true}) {
+                f.screen.columnMajor = columnMajor;
+                measure("layout/" + (columnMajor ? "transposed/" : "direct/") + res, filter, 60, 20, () -> {
+                    f.camera.rotate(0.01);
+                    f.screen.render(f.camera, f.level, f.pix, 0);
+                    f.screen.renderSprites(f.camera, f.submit(), f.pix, 0);
+                    sink += f.pix[f.pix.length/2];
+                });
+            }
+        }
+
+        for (int n : GameFixture.ENEMY_COUNTS) {
+            GameFixture f = new GameFixture(320, 200, n);
+            measure("ai/e" + n, filter, 600, 200, () -> {
+                sink += f.tickAI();
+            });
+        }
+
+        // Spatial queries: attack cone by full scan vs grid, and the AI tick with grid separation
+        for (int n : new int[]{10, 100, 1000, 10000}) {
+            GameFixture f = new GameFixture(320, 200, n);
+            measure("attack/scan/e" + n, filter, 1000, 1000, () -> {
+                GladiatorGame.EnemyStore es = f.level.enemies;
+                for (int i=0; i<es.count; i++) if (!es.dead[i] && f.combat.inAttackCone(i)) sink++;
+                f.camera.rotate(0.05);
+            });
+            GladiatorGame.IntList nearby = new GladiatorGame.IntList();
+            measure("attack/grid/e" + n, filter, 1000, 1000, () -> {
+                f.level.grid.query(f.camera.xPos, f.camera.yPos, GladiatorGame.CombatSystem.REACH, nearby);
+                for (int k=0; k<nearby.size; k++) if (!f.level.enemies.dead[nearby.data[k]] && f.combat.inAttackCone(nearby.data[k])) sink++;
+                f.camera.rotate(0.05);
+            });
+            measure("ai/grid/e" + n, filter, 300, 100, () -> {
+                sink += f.tickAI();
+            });
+        }
+
+        // AI tick: every enemy every tick vs the LOD scheduler at the default budget and a tight one
+        for (int n : new int[]{100, 1000, 10000}) {
+            GameFixture full = new GameFixture(320, 200, n);
+            measure("ai/full/e" + n, filter, 300, 100, () -> sink += full.tickAI());
+            for (int budget : new int[]{GladiatorGame.AIScheduler.DEFAULT_BUDGET, 64}) {
+                GameFixture f = new GameFixture(320, 200, n);
+                GladiatorGame.AIScheduler ai = new GladiatorGame.AIScheduler(f.combat);
+                ai.budget = budget;
+                int[] tick = {0};
+                long[] totals = new long[2];
+                String name = "ai/lod/b" + budget + "/e" + n;
+                measure(name, filter, 300, 100, () -> {
+                    ai.beginTick(tick[0]);
+                    GladiatorGame.EnemyStore es = f.level.enemies;
+                    for (int i=0; i<es.count; i++) if (ai.think(i, tick[0])) sink++;
+                    tick[0]++;
+                    totals[0] += ai.updates; totals[1] += ai.deferred;
+                });
+                if (tick[0] > 0) System.out.printf("  %.1f updates, %.1f deferred per tick%n", totals[0] / (double)tick[0], totals[1] / (double)tick[0]);
+            }
+        }
+
+        // Flow field: a full rebuild as the player crosses tiles, then the per-enemy steering read (search already drained)
+        {
+            GameFixture f = new GameFixture(320, 200, 1000);
+            GladiatorGame.FlowField flow = f.level.flow;
+            int[] tick = {0};
+            measure("flow/rebuild/m128", filter, 100, 10, () -> {
+                flow.rebuild(40 + (tick[0]++ & 31), 64);
+                flow.expand(-1);
+                sink += flow.cost[flow.cost.length/2];
+            });
+            GladiatorGame.EnemyStore es = f.level.enemies;
+            measure("flow/steer/e1000", filter, 1000, 100, () -> {
+                double acc = 0;
+                for (int i=0; i<es.count; i++) acc += f.level.flow.steer(es.x[i], es.y[i], f.camera.xPos, f.camera.yPos);
+                sink += (long)acc;
+            });
+
+            // The player crossing a tile on the biggest map, then one chaser 20 tiles out asking for its heading
+            if (matches("flow/", filter)) {
+                GladiatorGame.Level big = new GladiatorGame.Level(GameFixture.bigArena(), GameFixture.SEED);
+                int mid = GladiatorGame.TileMap.MAX_SIDE / 2;
+                measure("flow/retarget/m" + GladiatorGame.TileMap.MAX_SIDE, filter, 100, 10, () -> {
+                    int px = mid + (tick[0]++ & 31);
+                    sink += (long)big.flow.steer(px + 20.5, mid + 5.5, px + 0.5, mid + 0.5);
+                });
+            }
+        }
+
+        // Closed loop: the scaler resizes the fixture's buffers from measured frame times at each preset
+        if (matches("dynres/", filter)) {
+            for (int[] r : GameFixture.PRESETS) {
+                GameFixture f = new GameFixture(r[0], r[1], 30);
+                GladiatorGame.ResolutionScaler scaler = new GladiatorGame.ResolutionScaler(GladiatorGame.targetFps);
+                int changes = 0;
+                long work = 0;
+                for (int frame=0; frame<600; frame++) {
+                    long t0 = System.nanoTime();
+                    f.camera.rotate(0.01);
+                    f.screen.render(f.camera, f.level, f.pix, 0);
+                    f.screen.renderSprites(f.camera, f.submit(), f.pix, 0);
+                    work = System.nanoTime() - t0;
+                    if (scaler.update(work)) {
+                        changes++;
+                        f.screen = new GladiatorGame.Screen(scaler.scaled(r[0]), scaler.scaled(r[1]));
+                        f.screen.setWorkers(GladiatorGame.renderThreads);
+                        f.pix = new int[f.screen.w*f.screen.h];
+                    }
+                }
+                System.out.printf("dynres/%dx%d: %d fps budget %.2f ms, settled at %d/10 (%dx%d) after %d changes, %.2f ms/frame%n",
+                    r[0], r[1], GladiatorGame.targetFps, scaler.budgetNs/1e6, scaler.tenths, f.screen.w, f.screen.h, changes, scaler.avgNs/1e6);
+            }
+        }
+
+        // Present: the old direct stretch of the unmanaged frame vs the Presenter's path, into an offscreen stand-in
+        // for the back buffer, at full, half (whole-factor 2x) and 7/10 internal resolution. staged/ is the SCALED upload
+        // route in software, i.e. its overhead without a GPU to win it back
+        for (int[] r : GameFixture.PRESETS) {
+            BufferedImage target = new BufferedImage(r[0], r[1], BufferedImage.TYPE_INT_RGB);
+            for (int tenths : new int[]{10, 5, 7}) {
+                int w = r[0] * tenths / 10, h = r[1] * tenths / 10;
+                BufferedImage frame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                int[] pix = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData(); // Unmanaged, as in the game
+                for (int i=0; i<pix.length; i++) pix[i] = i * 0x9E3779B9;
+                GladiatorGame.Presenter presenter = new GladiatorGame.Presenter();
+                String res = r[0] + "x" + r[1] + "/t" + tenths;
+                measure("present/stretch/" + res, filter, 30, 10, () -> {
+                    Graphics2D g = target.createGraphics();
+                    g.drawImage(frame, 0, 0, r[0], r[1], null);
+                    g.dispose();
+                });
+                int path = GladiatorGame.Presenter.pathFor(w, h, r[0], r[1]);
+                for (boolean staged : path == GladiatorGame.Presenter.SCALED ? new boolean[]{false, true} : new boolean[]{false}) {
+                    presenter.stageOffscreen = staged;
+                    measure("present/" + GladiatorGame.Presenter.NAMES[path] + (staged ? "/staged/" : "/") + res, filter, 30, 10, () -> {
+                        Graphics2D g = target.createGraphics();
+                        presenter.present(g, frame, r[0], r[1], null);
+                        g.dispose();
+                    });
+                }
+            }
+        }
+
+        // Chunked tile maps: a 4096x4096 arena is saved, mapped, turned into a Level and raycast
+        if (matches("tilemap/", filter)) {
+            try {
+                File file = File.createTempFile("gladiator", ".map");
+                file.deleteOnExit();
+                int n = GladiatorGame.TileMap.MAX_SIDE;
+                GladiatorGame.TileMap big = GameFixture.bigArena();
+                int stored = big.save(file);
+                System.out.printf("tilemap/m%d: %.1f MB file for %.1f MB of tiles, %d of %d chunks stored%n",
+                    n, file.length() / 1e6, (double)n*n / 1e6, stored, big.cw*big.ch);
+                measure("tilemap/load/m" + n, filter, 20, 1, () -> {
+                    try { sink += GladiatorGame.TileMap.load(file).cw; } catch (IOException e) { throw new UncheckedIOException(e); }
+                });
+                GladiatorGame.TileMap mapped = GladiatorGame.TileMap.load(file);
+                GladiatorGame.Level[] level = new GladiatorGame.Level[1];
+                measure("tilemap/level/m" + n, filter, 1, 1, () -> level[0] = new GladiatorGame.Level(mapped, GameFixture.SEED));
+                GameFixture f = new GameFixture(1920, 1080, 0);
+                f.level = level[0];
+                f.camera.xPos = n/2 + 0.5; f.camera.yPos = n/2 + 0.5;
+                f.screen.setWorkers(1);
+                measure("tilemap/raycast/1920x1080/m" + n, filter, 60, 20, () -> {
+                    f.camera.rotate(0.01);
+                    f.screen.castColumns(f.camera, f.level, f.pix, 0, 0, f.screen.w);
+                    sink += (long)f.screen.zBuffer[f.screen.w/2];
+                });
+                System.out.printf("tilemap/walls/m%d: %d of %d wall chunks built by the raycasts, %d tile chunks copied%n",
+                    n, f.level.walls.built, big.cw*big.ch, mapped.owned);
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+
+        // Startup assets: generating everything serially vs in parallel vs mapping a pack written by the bake
+        if (matches("assets/", filter)) {
+            measure("assets/bake/serial", filter, 5, 1, () -> {
+                GladiatorGame.Texture[] tex = new GladiatorGame.Texture[GladiatorGame.TextureManager.COUNT];
+                for (int i=0; i<tex.length; i++) tex[i] = GladiatorGame.TextureManager.generate(i);
+                for (GladiatorGame.SoundEngine.Effect e : GladiatorGame.SoundEngine.EFFECTS) sink += GladiatorGame.SoundEngine.synthesize(e).length;
+                GladiatorGame.TextureAtlas.build(Arrays.asList(tex));
+            });
+            measure("assets/bake/parallel", filter, 5, 1, GladiatorGame.AssetPack::bake);
+            try {
+                File pack = File.createTempFile("gladiator", ".pack");
+                pack.deleteOnExit();
+                GladiatorGame.AssetPack.write(pack);
+                measure("assets/read", filter, 20, 1, () -> { if (!GladiatorGame.AssetPack.read(pack)) throw new IllegalStateException("Pack rejected"); });
+                GladiatorGame.AssetPack.await();
+                System.out.printf("assets/startup: %s in %.1f ms%n", GladiatorGame.AssetPack.origin, GladiatorGame.AssetPack.loadNs / 1e6);
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+
+        // HUD and minimap over an offscreen frame while the player walks, swings and slowly loses health
+        {
+            GameFixture f = new GameFixture(800, 600, 30);
+            BufferedImage frame = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+            GladiatorGame.HudLayers hud = new GladiatorGame.HudLayers();
+            GladiatorGame.IntList nearby = new GladiatorGame.IntList();
+            GladiatorGame.SpriteBatch dots = new GladiatorGame.SpriteBatch();
+            int[] tick = {0};
+            measure("hud/800x600", filter, 200, 200, () -> {
+                int t = tick[0]++;
+                f.camera.xPos = 64.5 + 8*Math.sin(t*0.01);
+                f.camera.rotate(0.02);
+                f.player.health = 200 - (t/60) % 200;
+                f.player.attackTimer = t % 90 < 20 ? 20 - t % 90 : 0;
+                Graphics2D g = frame.createGraphics();
+                hud.drawHUD(g, f.player, 1 + t/1000, 800, 600, Math.sin(t*0.1)*10);
+                GladiatorGame.HudLayers.collectDots(f.level, f.camera, nearby, dots);
+                hud.drawMinimap(g, f.camera, f.level, dots);
+                g.dispose();
+            });
+            if (matches("hud/", filter)) System.out.println("hud/layer rebuilds: " + hud.rebuilds);
+        }
+
+        // Publishing one tick to the render thread, and a two-thread check that no snapshot is ever torn
+        for (int n : new int[]{30, 300}) {
+            GladiatorGame.Simulation sim = new GladiatorGame.Simulation(GameFixture.SEED, GladiatorGame.SoundEngine.silent());
+            GameFixture.populate(sim.level, n);
+            for (int i=0; i<200; i++) sim.particles.spawnBlood(64 + i % 8, 64, 0);
+            GladiatorGame.SnapshotBuffer buffer = new GladiatorGame.SnapshotBuffer();
+            Random fx = new Random(GameFixture.SEED);
+            measure("snapshot/publish/e" + n, filter, 1000, 100, () -> {
+                buffer.back().capture(sim, fx);
+                buffer.publish();
+                sink += buffer.latest().sprites.count;
+            });
+        }
+
+        // Cost of one stage sample with no JFR recording
+        {
+            GladiatorGame.FrameProfiler prof = new GladiatorGame.FrameProfiler();
+            long[] t = {0};
+            measure("profiler/record", filter, 10000, 100000, () -> {
+                prof.record(GladiatorGame.FrameProfiler.WALLS, 1_000_000 + (t[0]++ & 0xFFFFF));
+                if (prof.samples[GladiatorGame.FrameProfiler.WALLS] > 1 << 30) prof.samples[GladiatorGame.FrameProfiler.WALLS] = 0;
+            });
+        }
+
+        // Record a bot session, then replay it into a fresh simulation
+        if (matches("replay/", filter)) {
+            GladiatorGame.SoundEngine muted = GladiatorGame.SoundEngine.silent();
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            GladiatorGame.Simulation live = new GladiatorGame.Simulation(GameFixture.SEED, muted);
+            GladiatorGame.InputHandler input = new GladiatorGame.InputHandler();
+            GladiatorGame.Bot bot = new GladiatorGame.Bot(GameFixture.SEED, false);
+            try (GladiatorGame.InputRecorder rec = GladiatorGame.InputRecorder.to(log, live)) {
+                for (int t=0; t<36000; t++) { // Ten minutes at 60 Hz
+                    bot.think(live, input);
+                    rec.write(input);
+                    if (live.tick(input) != GladiatorGame.Simulation.RUNNING) break;
+                }
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            byte[] bytes = log.toByteArray();
+            measure("replay/headless", filter, 2, 5, () -> {
+                try (GladiatorGame.InputReplay in = GladiatorGame.InputReplay.from(new ByteArrayInputStream(bytes))) {
+                    GladiatorGame.Simulation sim = new GladiatorGame.Simulation(in.seed, muted, in.arena);
+                    GladiatorGame.InputHandler snap = new GladiatorGame.InputHandler();
+                    while (in.next(snap) && sim.tick(snap) == GladiatorGame.Simulation.RUNNING) {}
+                    sink += sim.checksum();
+                } catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+            System.out.printf("replay/log: %d ticks in %d bytes (%.2f B/tick)%n", live.ticks, bytes.length, bytes.length / (double)live.ticks);
+        }
+
+        for (int hits : new int[]{1, 10, 100}) {
+            GameFixture f = new GameFixture(320, 200, 0);
+            measure("particles/hits" + hits, filter, 200, 1000, () -> {
+                for (int i=0; i<hits*10; i++) f.particles.spawnBlood(64.5 + (i & 7), 60.5, 0);
+                f.particles.update();
+                sink += f.particles.count;
+            });
+        }
+    }
+
+    static boolean matches(String name, String filter) { return filter.isEmpty() || name.contains(filter) || filter.contains(name); }
+
+    static void measure(String name, String filter, int warmup, int opsPerBatch, Op op) {
+        if (!filter.isEmpty() && !name.contains(filter)) return;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        for (int i=0; i<warmup; i++) op.run();
+        double[] ns = new double[BATCHES];
+        long bytes = 0;
+        for (int b=0; b<BATCHES; b++) {
+            long a0 = mx.getThreadAllocatedBytes(tid);
+            long t0 = System.nanoTime();
+            for (int i=0; i<opsPerBatch; i++) op.run();
+            ns[b] = (System.nanoTime() - t0) / (double)opsPerBatch;
+            bytes += mx.getThreadAllocatedBytes(tid) - a0;
+        }
+
+        double mean = 0, min = Double.MAX_VALUE, var = 0;
+        for (double v : ns) { mean += v; min = Math.min(min, v); }
+        mean /= BATCHES;
+        for (double v : ns) var += (v - mean) * (v - mean);
+        System.out.printf("%-32s %12.0f %10.0f %12.0f %12d%n", name, mean, Math.sqrt(var / BATCHES), min, bytes / ((long)BATCHES * opsPerBatch));
+    }
+}
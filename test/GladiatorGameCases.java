@@ -0,0 +1,100 @@
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// The hot cases of GladiatorBench as plain ops, for bench.GladiatorGameBenchmark. JMH will not generate code for the default
+// package and nothing outside it can name GladiatorGame, so the benchmarks look these up by name
+public final class GladiatorGameCases {
+    private GladiatorGameCases() {}
+
+    // Wall pass only, one DDA cell at a time or with distance-field skipping, in the stock arena or a wide open one
+    public static LongSupplier raycast(int w, int h, int size, boolean field) {
+        GameFixture f = new GameFixture(w, h, 0);
+        if (size != 128) GameFixture.openArena(f, size);
+        f.screen.setWorkers(1);
+        f.screen.distanceField = field;
+        return () -> {
+            f.camera.rotate(0.01);
+            f.screen.castColumns(f.camera, f.level, f.pix, 0, 0, f.screen.w);
+            return (long)f.screen.zBuffer[f.screen.w/2];
+        };
+    }
+
+    // Walls and floor into the framebuffer, on one render thread or several
+    public static LongSupplier render(int w, int h, int threads) {
+        GladiatorGame.TextureManager.init();
+        GameFixture f = new GameFixture(w, h, 3);
+        f.screen.setWorkers(threads);
+        return () -> {
+            f.camera.rotate(0.01);
+            f.screen.render(f.camera, f.level, f.pix, 0);
+            return f.pix[f.pix.length/2];
+        };
+    }
+
+    // Culling, sorting and drawing the sprites over an already rendered frame
+    public static LongSupplier sprites(int w, int h, int enemies) {
+        GladiatorGame.TextureManager.init();
+        GameFixture f = new GameFixture(w, h, enemies);
+        f.screen.setWorkers(GladiatorGame.renderThreads);
+        f.screen.render(f.camera, f.level, f.pix, 0);
+        return () -> {
+            f.screen.renderSprites(f.camera, f.submit(), f.pix, 0);
+            return f.pix[f.pix.length/2];
+        };
+    }
+
+    // AI tick: every enemy every tick, or the LOD scheduler at its default budget
+    public static LongSupplier ai(int enemies, boolean lod) {
+        GameFixture f = new GameFixture(320, 200, enemies);
+        GladiatorGame.EnemyStore es = f.level.enemies;
+        if (!lod) return () -> {
+            long n = 0;
+            for (int i=0; i<es.count; i++) if (f.combat.updateEnemyAI(i)) n++;
+            return n;
+        };
+        GladiatorGame.AIScheduler ai = new GladiatorGame.AIScheduler(f.combat);
+        int[] tick = {0};
+        return () -> {
+            long n = 0;
+            ai.beginTick(tick[0]);
+            for (int i=0; i<es.count; i++) if (ai.think(i, tick[0])) n++;
+            tick[0]++;
+            return n;
+        };
+    }
+
+    // The player crossing a tile on the biggest map, then one chaser 20 tiles out asking for its heading
+    public static LongSupplier flowRetarget() {
+        GladiatorGame.Level big = new GladiatorGame.Level(GameFixture.bigArena(), GameFixture.SEED);
+        int mid = GladiatorGame.TileMap.MAX_SIDE / 2;
+        int[] tick = {0};
+        return () -> {
+            int px = mid + (tick[0]++ & 31);
+            return (long)big.flow.steer(px + 20.5, mid + 5.5, px + 0.5, mid + 0.5);
+        };
+    }
+
+    // Publishing one tick to the render thread
+    public static LongSupplier snapshotPublish(int enemies) {
+        GladiatorGame.Simulation sim = new GladiatorGame.Simulation(GameFixture.SEED, GladiatorGame.SoundEngine.silent());
+        GameFixture.populate(sim.level, enemies);
+        for (int i=0; i<200; i++) sim.particles.spawnBlood(64 + i % 8, 64, 0);
+        GladiatorGame.SnapshotBuffer buffer = new GladiatorGame.SnapshotBuffer();
+        Random fx = new Random(GameFixture.SEED);
+        return () -> {
+            buffer.back().capture(sim, fx);
+            buffer.publish();
+            return buffer.latest().sprites.count;
+        };
+    }
+
+    // Blood from a number of hits, then one particle update
+    public static LongSupplier particles(int hits) {
+        GameFixture f = new GameFixture(320, 200, 0);
+        return () -> {
+            for (int i=0; i<hits*10; i++) f.particles.spawnBlood(64.5 + (i & 7), 60.5, 0);
+            f.particles.update();
+            return f.particles.count;
+        };
+    }
+}
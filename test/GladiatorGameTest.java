@@ -0,0 +1,705 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Correctness checks for the optimised paths, each against the simpler code it replaced. Headless; run with mvn test
+class GladiatorGameTest {
+    static final long SEED = GameFixture.SEED;
+    static final int[][] PRESETS = GameFixture.PRESETS;
+
+    @TempDir Path dir;
+
+    @BeforeAll
+    static void textures() { GladiatorGame.TextureManager.init(); }
+
+    static GameFixture fixture(int w, int h, int enemies) { return new GameFixture(w, h, enemies); }
+
+    @Test
+    void parallelRenderMatchesSerial() {
+        for (int[] r : PRESETS) {
+            GameFixture f = fixture(r[0], r[1], 3);
+            int[] serial = new int[f.pix.length];
+            f.screen.setWorkers(1);
+            f.screen.render(f.camera, f.level, serial, 3.0);
+            f.screen.setWorkers(4);
+            f.screen.render(f.camera, f.level, f.pix, 3.0);
+            assertArrayEquals(serial, f.pix, "Parallel render differs from serial at " + r[0] + "x" + r[1]);
+        }
+    }
+
+    // SpanStepper against the per-pixel divide it replaced, for every span height up to 4x each preset and the odd
+    // heights the resolution scaler makes from 768 (691, 537). Rows must also stay inside the texture
+    @Test
+    void spansMatchPerPixelDivide() {
+        GladiatorGame.SpanStepper span = new GladiatorGame.SpanStepper();
+        int[][] sizes = Arrays.copyOf(PRESETS, PRESETS.length + 2);
+        sizes[PRESETS.length] = new int[]{921, 691}; sizes[PRESETS.length + 1] = new int[]{716, 537};
+        for (int[] r : sizes) {
+            int h = r[1];
+            for (int bob : new int[]{-15, -4, 0, 3, 15}) {
+                for (int lh = 1; lh <= 4*h; lh++) {
+                    int start = Math.max(0, -lh/2 + h/2 + bob), end = Math.min(h-1, lh/2 + h/2 + bob);
+                    span.begin(64L*(start*256 - (h/2)*256 + lh*128 - bob*256), lh*256, 16384);
+                    for (int y = start; y < end; y++) {
+                        int d = y*256 - (h/2)*256 + lh*128 - bob*256, t = span.next();
+                        if (t != ((d*64)/lh)/256) fail("Span row differs at h=" + h + " lh=" + lh + " bob=" + bob + " y=" + y);
+                        if (t < 0 || t >= 64) fail("Span row " + t + " outside the texture at h=" + h + " lh=" + lh + " bob=" + bob + " y=" + y);
+                    }
+                    int startX = Math.max(0, -lh/2 + r[0]/3), endX = Math.min(r[0]-1, lh/2 + r[0]/3);
+                    span.begin(16384L*(startX-(-lh/2 + r[0]/3)), lh*256, 16384);
+                    for (int x = startX; x < endX; x++) {
+                        if (span.next() != (256*(x-(-lh/2 + r[0]/3))*64/lh)/256) fail("Span column differs at w=" + r[0] + " sw=" + lh + " x=" + x);
+                    }
+                }
+            }
+        }
+        for (long num = -40000; num < 40000; num += 37) { // Negative starts floor like Math.floorDiv
+            span.begin(num, 691*256, 16384);
+            for (int k = 0; k < 8; k++)
+                if (span.next() != Math.floorDiv(num + k*16384L, 691*256)) fail("Span differs from floorDiv at num=" + num + " k=" + k);
+        }
+    }
+
+    // Each chunk's distances against a brute-force search, then the skipping raycast against one DDA cell at a time
+    @Test
+    void distanceFieldMatchesStepping() {
+        for (int[] r : PRESETS) {
+            for (int size : new int[]{128, 512}) {
+                GameFixture f = fixture(r[0], r[1], 0);
+                if (size != 128) GameFixture.openArena(f, size);
+                f.screen.setWorkers(1);
+                GladiatorGame.Level l = f.level;
+                Random rnd = new Random(SEED);
+                for (int k=0; k<500; k++) {
+                    int x = rnd.nextInt(l.w + 2) - 1, y = rnd.nextInt(l.h + 2) - 1, exact = GladiatorGame.WallField.CAP;
+                    for (int d=0; d<GladiatorGame.WallField.CAP && exact == GladiatorGame.WallField.CAP; d++)
+                        for (int dy=-d; dy<=d; dy++) for (int dx=-d; dx<=d; dx++) {
+                            int tx = x + dx, ty = y + dy;
+                            if (tx < 0 || ty < 0 || tx >= l.w || ty >= l.h || l.tile(tx, ty) == 1) exact = Math.min(exact, d);
+                        }
+                    assertEquals(exact, l.walls.dist(x, y), "Wall distance at " + x + "," + y);
+                }
+                int[] step = new int[f.pix.length];
+                for (int i=0; i<16; i++) {
+                    f.camera.rotate(0.39);
+                    f.screen.distanceField = false;
+                    f.screen.render(f.camera, f.level, step, 3.0);
+                    double[] z = f.screen.zBuffer.clone();
+                    f.screen.distanceField = true;
+                    f.screen.render(f.camera, f.level, f.pix, 3.0);
+                    assertArrayEquals(z, f.screen.zBuffer, "Distance-field depths differ at " + r[0] + "x" + r[1] + " in a " + size + " map");
+                    assertArrayEquals(step, f.pix, "Distance-field raycast differs at " + r[0] + "x" + r[1] + " in a " + size + " map");
+                }
+            }
+        }
+    }
+
+    // An arena with no wall ring: rays stop at the map edge and the floor under those walls must stay on the map
+    @Test
+    void openEdgedArenaRenders() throws IOException {
+        GladiatorGame.TileMap open = new GladiatorGame.TileMap(64, 64);
+        for (int i=0; i<64; i+=7) open.set(i, 63 - i, 2);
+        File file = dir.resolve("open.map").toFile();
+        open.save(file);
+        GladiatorGame.Level l = new GladiatorGame.Level(GladiatorGame.TileMap.load(file), SEED);
+        for (int[] r : new int[][]{{320, 200}, {320, 201}}) {
+            GladiatorGame.Screen screen = new GladiatorGame.Screen(r[0], r[1]);
+            int[] pix = new int[r[0]*r[1]];
+            for (double a=0.3; a<6; a+=0.8) for (double b=0.5; b<64; b+=5.3) {
+                for (double[] pos : new double[][]{{a, b}, {63.99 - a, b}, {b, a}, {b, 63.99 - a}}) {
+                    GladiatorGame.Camera cam = new GladiatorGame.Camera(pos[0], pos[1], 1, 0, 0.66);
+                    for (int turn=0; turn<4; turn++) {
+                        cam.rotate(Math.PI/2 + 0.1);
+                        for (double bob : new double[]{-7.5, 0.4, 7.9}) screen.render(cam, l, pix, bob);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void transposedLayoutMatchesDirect() {
+        for (int[] r : PRESETS) {
+            GameFixture f = fixture(r[0], r[1], 300);
+            f.screen.setWorkers(1);
+            int[] direct = new int[f.pix.length];
+            GladiatorGame.SpriteBatch renderList = f.submit();
+            f.screen.columnMajor = false;
+            f.screen.render(f.camera, f.level, direct, 3.0);
+            f.screen.renderSprites(f.camera, renderList, direct, 3.0);
+            f.screen.columnMajor = true;
+            f.screen.render(f.camera, f.level, f.pix, 3.0);
+            f.screen.renderSprites(f.camera, renderList, f.pix, 3.0);
+            assertArrayEquals(direct, f.pix, "Transposed framebuffer differs from direct at " + r[0] + "x" + r[1]);
+        }
+    }
+
+    // Every reachable tile must walk downhill to the player's tile, with spikes at their own cost and at 1
+    @Test
+    void flowFieldDescends() {
+        for (int spikeCost : new int[]{1, GladiatorGame.FlowField.SPIKE_COST}) {
+            GladiatorGame.Level l = new GladiatorGame.Level(128, 128, SEED, spikeCost);
+            GladiatorGame.FlowField flow = l.flow;
+            flow.rebuild(l.w/2, l.h/2);
+            flow.expand(-1);
+            for (int x=0; x<l.w; x++) for (int y=0; y<l.h; y++) {
+                int i = flow.index(x, y);
+                if (i < 0 || flow.stamp[i] != flow.generation || flow.cost[i] == GladiatorGame.FlowField.UNREACHED) {
+                    assertEquals(1, l.tile(x, y), "Flow field misses open tile " + x + "," + y);
+                    continue;
+                }
+                for (int hops=0; flow.cost[i] > 0; hops++) {
+                    int j = i + GladiatorGame.FlowField.OFF[flow.next[i]];
+                    if (flow.cost[j] >= flow.cost[i] || hops > l.w*l.h) fail("Flow field does not descend from " + x + "," + y);
+                    i = j;
+                }
+            }
+        }
+    }
+
+    // After enemies have moved and died, the grid must return every enemy near a point exactly once, and the attack
+    // cone through the grid must hit the same enemies as a scan over all of them
+    @Test
+    void gridQueryMatchesScan() {
+        GameFixture f = fixture(320, 200, 1000);
+        GladiatorGame.EnemyStore es = f.level.enemies;
+        GladiatorGame.IntList nearby = new GladiatorGame.IntList();
+        Random rnd = new Random(SEED);
+        for (int round=0; round<60; round++) {
+            for (int t=0; t<5; t++) f.tickAI();
+            if (round % 8 == 0) for (int k=0; k<50; k++) f.level.removeEnemy(rnd.nextInt(es.count));
+            double x = 0, y = 0;
+            for (int q=0; q<50; q++) { // Around enemies, where a stale cell would show
+                int at = rnd.nextInt(es.count);
+                x = es.x[at] + rnd.nextGaussian(); y = es.y[at] + rnd.nextGaussian();
+                double r = rnd.nextDouble() * 3;
+                f.level.grid.query(x, y, r, nearby);
+                int[] seen = new int[es.count];
+                for (int k=0; k<nearby.size; k++) seen[nearby.data[k]]++;
+                for (int i=0; i<es.count; i++) {
+                    assertTrue(seen[i] <= 1, "Enemy " + i + " returned " + seen[i] + " times");
+                    if (Math.abs(es.x[i] - x) <= r && Math.abs(es.y[i] - y) <= r) assertEquals(1, seen[i], "Grid misses enemy " + i);
+                }
+            }
+
+            f.camera.xPos = x; f.camera.yPos = y; f.camera.rotate(0.7);
+            boolean[] scan = new boolean[es.count], grid = new boolean[es.count];
+            for (int i=0; i<es.count; i++) scan[i] = !es.dead[i] && f.combat.inAttackCone(i);
+            f.level.grid.query(x, y, GladiatorGame.CombatSystem.REACH, nearby);
+            for (int k=0; k<nearby.size; k++) { int i = nearby.data[k]; grid[i] = !es.dead[i] && f.combat.inAttackCone(i); }
+            assertArrayEquals(scan, grid, "Attack cone through the grid differs from the scan");
+        }
+    }
+
+    // The enemy as it was before the structure-of-arrays store: one object per enemy, same state machine and timers
+    static final class OldEnemy {
+        double x, y, angle, hp = 100;
+        byte state = GladiatorGame.EnemyStore.IDLE;
+        int attackTimer, stunTimer, deathTimer;
+        boolean isDead;
+
+        void takeDamage(double d) { hp-=d; if(hp<=0 && !isDead) { isDead=true; deathTimer=100; } }
+
+        // The old CombatSystem.updateEnemyAI without the move itself; returns whether the player was hit
+        boolean update(GladiatorGame.Player player) {
+            if(isDead) return false;
+            double dx = player.camera.xPos - x, dy = player.camera.yPos - y;
+            double dist = Math.sqrt(dx*dx + dy*dy);
+            angle = Math.atan2(dy, dx);
+            switch(state) {
+                case GladiatorGame.EnemyStore.IDLE: if(dist < 20) state = GladiatorGame.EnemyStore.CHASE; break;
+                case GladiatorGame.EnemyStore.CHASE:
+                    if(dist <= 2.0) { state = GladiatorGame.EnemyStore.WINDUP; attackTimer = 30; }
+                    break;
+                case GladiatorGame.EnemyStore.WINDUP:
+                    if(--attackTimer <= 0) { state = GladiatorGame.EnemyStore.ATTACK; attackTimer = 10; }
+                    break;
+                case GladiatorGame.EnemyStore.ATTACK:
+                    if(attackTimer == 5 && dist < 2.5) {
+                        if(player.isBlocking) { state = GladiatorGame.EnemyStore.STUNNED; stunTimer=40; return false; }
+                        return true;
+                    }
+                    if(--attackTimer <= 0) { state = GladiatorGame.EnemyStore.COOLDOWN; stunTimer = 40; }
+                    break;
+                case GladiatorGame.EnemyStore.COOLDOWN:
+                case GladiatorGame.EnemyStore.STUNNED:
+                    if(--stunTimer <= 0) state = GladiatorGame.EnemyStore.CHASE;
+                    break;
+            }
+            return false;
+        }
+    }
+
+    // Every enemy's state, timers, hp and death must follow the old object model tick for tick, including through
+    // stuns, blocks, kills and swap-removes; the old model takes each enemy's position from the store
+    @Test
+    void enemyStoreMatchesOldEnemy() {
+        GameFixture f = fixture(320, 200, 40);
+        GladiatorGame.EnemyStore es = f.level.enemies;
+        Map<Integer, OldEnemy> old = new HashMap<>();
+        for (int i=0; i<es.count; i++) old.put(es.id[i], new OldEnemy());
+        Random rnd = new Random(SEED);
+        int hits = 0, removed = 0;
+        for (int t=0; t<3000 && es.count > 0; t++) {
+            f.camera.xPos = 64.5 + 6*Math.sin(t*0.004); f.camera.yPos = 64.5 + 6*Math.cos(t*0.003);
+            f.player.isBlocking = (t / 50) % 3 == 0;
+            f.player.health = 200;
+            if (t % 7 == 0) { // The player's sword, as playerAttack applies it
+                int i = rnd.nextInt(es.count);
+                if (!es.dead[i]) {
+                    OldEnemy o = old.get(es.id[i]);
+                    es.takeDamage(i, 35); o.takeDamage(35);
+                    es.state[i] = o.state = GladiatorGame.EnemyStore.STUNNED; es.stunTimer[i] = o.stunTimer = 25;
+                }
+            }
+            for (int i=0; i<es.count;) {
+                OldEnemy o = old.get(es.id[i]);
+                o.x = es.x[i]; o.y = es.y[i];
+                double hp = f.player.health;
+                boolean expected = o.update(f.player), hit = f.combat.updateEnemyAI(i);
+                assertEquals(expected, hit, "Hit at tick " + t);
+                assertEquals(hit ? hp - 10 : hp, f.player.health, 0.0);
+                if (hit) hits++;
+                String at = "enemy " + es.id[i] + " at tick " + t;
+                assertEquals(o.state, es.state[i], "State of " + at);
+                assertEquals(o.attackTimer, es.attackTimer[i], "Attack timer of " + at);
+                assertEquals(o.stunTimer, es.stunTimer[i], "Stun timer of " + at);
+                assertEquals(o.hp, es.hp[i], 0.0, "Hp of " + at);
+                assertEquals(o.isDead, es.dead[i], "Death of " + at);
+                assertEquals(o.angle, es.angle[i], 0.0, "Facing of " + at);
+                assertEquals(o.isDead ? 6 : o.state == GladiatorGame.EnemyStore.STUNNED ? 7 : o.state == GladiatorGame.EnemyStore.ATTACK ? 5 : 4, es.textureId(i));
+                if (es.dead[i]) {
+                    assertEquals(o.deathTimer, es.deathTimer[i], "Death timer of " + at);
+                    if (es.deathTimer[i] > 0) { es.deathTimer[i]--; o.deathTimer--; }
+                    else { old.remove(es.id[i]); f.level.removeEnemy(i); removed++; continue; }
+                }
+                i++;
+            }
+        }
+        assertTrue(hits > 0 && removed > 0, hits + " hits, " + removed + " removed");
+    }
+
+    // The ring against the old list of particle objects: same drift and expiry, and when full the oldest drop first.
+    // Once warm, spawning, updating and submitting the render list allocate nothing
+    @Test
+    void particleRingMatchesList() {
+        GladiatorGame.ParticleSystem ring = new GladiatorGame.ParticleSystem(new Random(SEED));
+        Random oldRng = new Random(SEED), rnd = new Random(SEED + 1);
+        List<double[]> list = new ArrayList<>(); // x, y, vx, vy, life
+        GladiatorGame.SpriteBatch batch = new GladiatorGame.SpriteBatch();
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId(), allocated = 0;
+        int overflows = 0;
+        for (int t=0; t<2000; t++) {
+            long a0 = mx.getThreadAllocatedBytes(tid);
+            int spawns = t % 500 < 100 ? rnd.nextInt(400) : rnd.nextInt(20); // Bursts past capacity, then calm
+            for (int k=0; k<spawns; k++) ring.spawnBlood(64 + k % 8, 60 + t % 5, 0);
+            ring.update();
+            batch.clear();
+            ring.submitSprites(batch);
+            if (t >= 1000) allocated += mx.getThreadAllocatedBytes(tid) - a0;
+
+            for (int k=0; k<spawns; k++) {
+                if (list.size() == GladiatorGame.ParticleSystem.CAPACITY) { list.remove(0); overflows++; }
+                list.add(new double[]{64 + k % 8, 60 + t % 5, (oldRng.nextDouble()-0.5)*0.1, (oldRng.nextDouble()-0.5)*0.1, GladiatorGame.ParticleSystem.LIFE});
+            }
+            for (Iterator<double[]> it = list.iterator(); it.hasNext();) {
+                double[] p = it.next();
+                p[0] += p[2]; p[1] += p[3];
+                if (--p[4] <= 0) it.remove();
+            }
+            assertEquals(list.size(), batch.count, "Live particles at tick " + t);
+            for (int k=0; k<batch.count; k++) {
+                assertEquals(list.get(k)[0], batch.x[k], 0.0, "Particle " + k + " at tick " + t);
+                assertEquals(list.get(k)[1], batch.y[k], 0.0, "Particle " + k + " at tick " + t);
+            }
+        }
+        assertTrue(overflows > 0, "The bursts never filled the ring");
+        assertEquals(0, allocated, "Bytes allocated by particles in steady state");
+
+        GameFixture f = fixture(320, 200, 300); // The whole render list: enemies, emperor and particles
+        f.particles = ring;
+        for (int k=0; k<100; k++) f.submit();
+        long a0 = mx.getThreadAllocatedBytes(tid);
+        for (int k=0; k<100; k++) f.submit();
+        assertEquals(0, mx.getThreadAllocatedBytes(tid) - a0, "Bytes allocated by sprite submission");
+    }
+
+    // Culling and the radix sort against the old path: every sprite drawn, sorted far to near with a comparator, one
+    // per-pixel divide per texel. Depth ties (same 1/256 tile) keep submission order in both
+    @Test
+    void spritesMatchSortedList() {
+        for (int[] r : PRESETS) {
+            GameFixture f = fixture(r[0], r[1], 300);
+            for (int i=0; i<300; i++) f.particles.spawnBlood(60 + i % 9, 62 + i % 5, 0);
+            f.screen.setWorkers(1);
+            f.screen.mipmaps = false;
+            int w = r[0], h = r[1], occluded = 0;
+            for (int turn=0; turn<8; turn++) {
+                f.camera.rotate(Math.PI/4);
+                GladiatorGame.Camera c = f.camera;
+                GladiatorGame.SpriteBatch b = f.submit();
+                f.screen.render(c, f.level, f.pix, 0);
+                int[] expected = f.pix.clone();
+                f.screen.renderSprites(c, b, f.pix, 0);
+
+                double inv = 1.0/(c.xPlane*c.yDir - c.xDir*c.yPlane);
+                List<Integer> order = new ArrayList<>();
+                double[] depth = new double[b.count];
+                for (int i=0; i<b.count; i++) {
+                    order.add(i);
+                    depth[i] = inv * (-c.yPlane*(b.x[i] - c.xPos) + c.xPlane*(b.y[i] - c.yPos));
+                }
+                order.sort((s1, s2) -> Integer.compare((int)Math.min(0xFFFF, depth[s2]*256), (int)Math.min(0xFFFF, depth[s1]*256)));
+                for (int i : order) {
+                    double ty = depth[i];
+                    if (ty <= 0) continue;
+                    double tx = inv * (c.yDir*(b.x[i] - c.xPos) - c.xDir*(b.y[i] - c.yPos));
+                    int scx = (int)((w/2)*(1 + tx/ty)), sh = Math.abs((int)(h/ty)), sw = sh;
+                    int startY = Math.max(0, -sh/2 + h/2), endY = Math.min(h-1, sh/2 + h/2);
+                    int startX = Math.max(0, -sw/2 + scx), endX = Math.min(w-1, sw/2 + scx);
+                    int base = GladiatorGame.TextureAtlas.offset(b.tex[i], 0), drawn = 0;
+                    for (int stripe=startX; stripe<endX; stripe++) {
+                        int texX = (int)(256L*(stripe-(-sw/2+scx))*64/sw)/256;
+                        if (stripe <= 0 || ty >= f.screen.zBuffer[stripe]) continue;
+                        for (int y=startY; y<endY; y++) {
+                            int d = y*256 - (h/2)*256 + sh*128;
+                            int col = GladiatorGame.TextureAtlas.data[base + 64*(((d*64)/sh)/256) + texX];
+                            if (col != -1) { expected[stripe+y*w] = col; drawn++; }
+                        }
+                    }
+                    if (drawn == 0) occluded++;
+                }
+                assertArrayEquals(expected, f.pix, "Sprites differ from the sorted list at " + w + "x" + h + ", turn " + turn);
+            }
+            assertTrue(occluded > 0, "Nothing was hidden behind walls at " + w + "x" + h);
+        }
+    }
+
+    // 10k chasers far outrun the budget; every one must still be updated within due/budget ticks of falling due,
+    // not just the lowest slots
+    @Test
+    void scheduledAIReachesEveryEnemy() {
+        GameFixture f = fixture(320, 200, 10000);
+        GladiatorGame.EnemyStore es = f.level.enemies;
+        for (int i=0; i<es.count; i++) es.state[i] = GladiatorGame.EnemyStore.CHASE;
+        GladiatorGame.AIScheduler ai = new GladiatorGame.AIScheduler(f.combat);
+        ai.budget = 256;
+        int bound = 8*GladiatorGame.AIScheduler.MAX_STRETCH + (es.count + ai.budget - 1) / ai.budget, worst = 0, deferred = 0;
+        for (int tick=0; tick<400; tick++) {
+            ai.beginTick(tick);
+            for (int i=0; i<es.count; i++) ai.think(i, tick);
+            deferred += ai.deferred;
+            if (tick < bound) continue;
+            for (int i=0; i<es.count; i++) {
+                if (es.dead[i]) continue;
+                assertNotEquals(GladiatorGame.EnemyStore.NEVER, es.lastThink[i], "Slot " + i + " never ran by tick " + tick);
+                worst = Math.max(worst, tick - es.lastThink[i]);
+            }
+        }
+        assertTrue(deferred > 0, "The budget was never exceeded");
+        assertTrue(worst <= bound, "An enemy waited " + worst + " ticks, more than " + bound);
+    }
+
+    // The producer stamps every sprite of snapshot k with k; the consumer must only ever see whole, non-decreasing stamps
+    @Test
+    void snapshotsAreNeverTorn() throws InterruptedException {
+        GladiatorGame.SnapshotBuffer buffer = new GladiatorGame.SnapshotBuffer();
+        final int frames = 200_000;
+        Thread producer = new Thread(() -> {
+            for (int k=1; k<=frames; k++) {
+                GladiatorGame.Snapshot s = buffer.back();
+                s.sprites.clear();
+                for (int i=0; i < 1 + k % 64; i++) s.sprites.add(k, k, k);
+                s.tickNs = k;
+                buffer.publish();
+                if ((k & 15) == 0) Thread.yield(); // Let the reader interleave rather than see only the last few
+            }
+        });
+        producer.start();
+        long seen = 0;
+        while (seen < frames) {
+            GladiatorGame.Snapshot s = buffer.latest();
+            long k = s.tickNs;
+            if (k < seen) fail("Snapshot went backwards: " + k + " after " + seen);
+            if (k > 0 && s.sprites.count != 1 + k % 64) fail("Torn snapshot " + k);
+            for (int i=0; i<s.sprites.count; i++) if (s.sprites.tex[i] != k) fail("Torn snapshot " + k);
+            seen = k;
+        }
+        producer.join();
+    }
+
+    // Every Presenter path, staged or not, must put the same pixels in the back buffer as a direct stretch
+    @Test
+    void presentMatchesStretch() {
+        for (int[] r : PRESETS) {
+            BufferedImage target = new BufferedImage(r[0], r[1], BufferedImage.TYPE_INT_RGB);
+            for (int tenths : new int[]{10, 5, 7}) {
+                int w = r[0] * tenths / 10, h = r[1] * tenths / 10;
+                BufferedImage frame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                int[] pix = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+                for (int i=0; i<pix.length; i++) pix[i] = i * 0x9E3779B9;
+                GladiatorGame.Presenter presenter = new GladiatorGame.Presenter();
+                int path = GladiatorGame.Presenter.pathFor(w, h, r[0], r[1]);
+                for (boolean staged : path == GladiatorGame.Presenter.SCALED ? new boolean[]{false, true} : new boolean[]{false}) {
+                    presenter.stageOffscreen = staged;
+                    Graphics2D g = target.createGraphics();
+                    g.drawImage(frame, 0, 0, r[0], r[1], null);
+                    g.dispose();
+                    int[] stretched = target.getRGB(0, 0, r[0], r[1], null, 0, r[0]);
+                    g = target.createGraphics();
+                    g.setColor(Color.MAGENTA);
+                    g.fillRect(0, 0, r[0], r[1]);
+                    presenter.present(g, frame, r[0], r[1], null);
+                    g.dispose();
+                    assertArrayEquals(stretched, target.getRGB(0, 0, r[0], r[1], null, 0, r[0]),
+                        "Present path " + GladiatorGame.Presenter.NAMES[presenter.path] + (staged ? "/staged" : "") + " differs at " + w + "x" + h);
+                }
+            }
+        }
+    }
+
+    // The generated arena saved and mapped back must give the same tiles, walls and distance field, edits to the
+    // mapped copy must stay in memory, and a damaged chunk must fail when read without stopping the rest loading
+    @Test
+    void tileMapRoundTrips() throws IOException {
+        File file = dir.resolve("arena.map").toFile();
+        GladiatorGame.Level generated = new GladiatorGame.Level(128, 128, SEED);
+        generated.tiles.save(file);
+        GladiatorGame.TileMap mapped = GladiatorGame.TileMap.load(file);
+        for (int x=0; x<128; x++) for (int y=0; y<128; y++)
+            assertEquals(generated.tile(x, y), mapped.get(x, y), "Tile " + x + "," + y + " differs after a round trip");
+        GladiatorGame.Level loaded = new GladiatorGame.Level(mapped, SEED);
+        for (int x=-1; x<=128; x++) for (int y=-1; y<=128; y++)
+            assertEquals(generated.walls.dist(x, y), loaded.walls.dist(x, y), "Loaded arena builds different walls at " + x + "," + y);
+        long bytes = file.length();
+        loaded.setTile(64, 64, 1);
+        assertEquals(1, loaded.tile(64, 64));
+        assertEquals(generated.tile(64, 64), GladiatorGame.TileMap.load(file).get(64, 64), "Editing a mapped arena leaked into the file");
+        assertEquals(1, mapped.owned);
+        byte[] raw = Files.readAllBytes(file.toPath());
+        raw[(int)bytes - 1] = (byte)200; // Last tile of the last stored chunk
+        Files.write(file.toPath(), raw);
+        GladiatorGame.TileMap damaged = GladiatorGame.TileMap.load(file); // Chunks are only checked when first read
+        int bad = 0;
+        while (ByteBuffer.wrap(raw).getInt(20 + 4*bad) != bytes - 1024) bad++; // Its directory entry
+        for (int k=0; k<16; k++) {
+            int x = (k % 4)*32 + 31, y = (k / 4)*32 + 31;
+            if (k == bad) assertThrows(UncheckedIOException.class, () -> damaged.get(x, y), "A tile value of 200 was accepted");
+            else assertEquals(generated.tile(x, y), damaged.get(x, y), "Undamaged chunk " + k + " unreadable");
+        }
+    }
+
+    // The biggest map is mapped, turned into a Level and raycast without its tiles ever being copied to the heap
+    @Test
+    void mappedArenaStaysMapped() throws IOException {
+        File file = dir.resolve("big.map").toFile();
+        int n = GladiatorGame.TileMap.MAX_SIDE;
+        GameFixture.bigArena().save(file);
+        GladiatorGame.TileMap mapped = GladiatorGame.TileMap.load(file);
+        GameFixture f = fixture(1920, 1080, 0);
+        f.level = new GladiatorGame.Level(mapped, SEED);
+        f.camera.xPos = n/2 + 0.5; f.camera.yPos = n/2 + 0.5;
+        f.screen.setWorkers(1);
+        for (int i=0; i<16; i++) {
+            f.camera.rotate(0.39);
+            f.screen.castColumns(f.camera, f.level, f.pix, 0, 0, f.screen.w);
+        }
+        assertEquals(0, mapped.owned, "Reading a mapped arena copied chunks");
+    }
+
+    @Test
+    void setTileRefusesUnknownValues() {
+        GladiatorGame.TileMap map = new GladiatorGame.TileMap(64, 64);
+        assertThrows(IllegalArgumentException.class, () -> map.set(3, 3, GladiatorGame.TileMap.KINDS));
+    }
+
+    // The tick that picks up an event reports how long the event waited for it
+    @Test
+    void inputLatencyIsMeasured() throws InterruptedException {
+        GladiatorGame.InputHandler in = new GladiatorGame.InputHandler();
+        in.press(GladiatorGame.InputHandler.FORWARD);
+        Thread.sleep(5);
+        in.poll();
+        assertTrue(in.forward);
+        assertTrue(in.latencyNanos >= 5_000_000, "latency " + in.latencyNanos);
+        assertEquals(in.latencyNanos, in.avgLatencyNanos, 0.0);
+        long last = in.latencyNanos;
+        in.poll(); // Nothing new: the last measurement stands
+        assertEquals(last, in.latencyNanos);
+    }
+
+    // Histogram percentiles against the exact ones from a sorted copy
+    @Test
+    void profilerPercentiles() {
+        GladiatorGame.FrameProfiler p = new GladiatorGame.FrameProfiler();
+        Random rnd = new Random(SEED);
+        long[] v = new long[100000];
+        for (int i=0; i<v.length; i++) { v[i] = (long)(2e6 * Math.exp(rnd.nextGaussian() * 0.5)); p.record(GladiatorGame.FrameProfiler.FLOOR, v[i]); }
+        Arrays.sort(v);
+        for (double q : new double[]{0.5, 0.99}) {
+            long exact = v[(int)Math.ceil(q * v.length) - 1];
+            assertEquals(exact, p.percentile(GladiatorGame.FrameProfiler.FLOOR, q), exact / 16 + 1, "p" + (int)(q*100));
+        }
+    }
+
+    // Record a bot session, replay it into a fresh simulation and require the same end state
+    @Test
+    void replayReproducesSession() throws IOException {
+        GladiatorGame.SoundEngine muted = GladiatorGame.SoundEngine.silent();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        GladiatorGame.Simulation live = record(new GladiatorGame.Simulation(SEED, muted), log, 36000); // Ten minutes at 60 Hz
+        GladiatorGame.Simulation sim = replay(log.toByteArray(), muted);
+        assertEquals(live.ticks, sim.ticks, "Replay ran a different number of ticks");
+        assertEquals(live.checksum(), sim.checksum(), "Replay diverged");
+    }
+
+    // A session on a saved arena must replay on that arena, and a replay whose arena file changed must be refused
+    @Test
+    void replayChecksItsArena() throws IOException {
+        File file = dir.resolve("arena.map").toFile();
+        new GladiatorGame.Level(128, 128, SEED + 1).tiles.save(file); // Not the layout SEED would generate
+        GladiatorGame.SoundEngine muted = GladiatorGame.SoundEngine.silent();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        GladiatorGame.Simulation live = new GladiatorGame.Simulation(SEED, muted, GladiatorGame.TileMap.load(file));
+        record(live, log, 3600);
+        GladiatorGame.Simulation sim = replay(log.toByteArray(), muted);
+        assertEquals(live.ticks, sim.ticks);
+        assertEquals(live.checksum(), sim.checksum(), "Arena replay diverged");
+
+        GladiatorGame.TileMap edited = GladiatorGame.TileMap.load(file);
+        edited.set(64, 64, 1 - edited.get(64, 64) % 2);
+        File copy = new File(file.getPath() + ".edit");
+        edited.save(copy); // Not over the mapped original, which would pull the pages out from under it
+        Files.move(copy.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertThrows(IOException.class, () -> GladiatorGame.InputReplay.from(new ByteArrayInputStream(log.toByteArray())), "A changed arena was replayed");
+    }
+
+    // The AI budget and spike cost change the simulation, so a session run with others must be refused
+    @Test
+    void replayChecksItsSettings() throws IOException {
+        GladiatorGame.SoundEngine muted = GladiatorGame.SoundEngine.silent();
+        GladiatorGame.Simulation tight = new GladiatorGame.Simulation(SEED, muted);
+        tight.ai.budget = GladiatorGame.AIScheduler.DEFAULT_BUDGET / 4;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        record(tight, log, 60);
+        assertThrows(IOException.class, () -> GladiatorGame.InputReplay.from(new ByteArrayInputStream(log.toByteArray())), "A session with another AI budget was replayed");
+
+        GladiatorGame.Simulation costly = new GladiatorGame.Simulation(SEED, muted);
+        costly.level.tileCost[2] = GladiatorGame.FlowField.SPIKE_COST + 1;
+        log.reset();
+        record(costly, log, 60);
+        assertThrows(IOException.class, () -> GladiatorGame.InputReplay.from(new ByteArrayInputStream(log.toByteArray())), "A session with another spike cost was replayed");
+    }
+
+    static GladiatorGame.Simulation record(GladiatorGame.Simulation live, ByteArrayOutputStream log, int ticks) throws IOException {
+        GladiatorGame.InputHandler input = new GladiatorGame.InputHandler();
+        GladiatorGame.Bot bot = new GladiatorGame.Bot(SEED, false);
+        try (GladiatorGame.InputRecorder rec = GladiatorGame.InputRecorder.to(log, live)) {
+            for (int t=0; t<ticks; t++) {
+                bot.think(live, input);
+                rec.write(input);
+                if (live.tick(input) != GladiatorGame.Simulation.RUNNING) break;
+            }
+        }
+        return live;
+    }
+
+    static GladiatorGame.Simulation replay(byte[] log, GladiatorGame.SoundEngine sound) throws IOException {
+        try (GladiatorGame.InputReplay in = GladiatorGame.InputReplay.from(new ByteArrayInputStream(log))) {
+            GladiatorGame.Simulation sim = new GladiatorGame.Simulation(in.seed, sound, in.arena);
+            GladiatorGame.InputHandler snap = new GladiatorGame.InputHandler();
+            while (in.next(snap) && sim.tick(snap) == GladiatorGame.Simulation.RUNNING) {}
+            return sim;
+        }
+    }
+
+    // A read pack must reproduce the bake exactly, and a damaged or outdated one must be refused
+    @Test
+    void assetPackRoundTrips() throws IOException {
+        File pack = dir.resolve("assets.pack").toFile();
+        GladiatorGame.AssetPack.bake();
+        int[] data = GladiatorGame.TextureAtlas.data.clone(), offsets = GladiatorGame.TextureAtlas.offsets.clone();
+        byte[][] sounds = GladiatorGame.AssetPack.sounds.clone();
+        GladiatorGame.AssetPack.write(pack);
+        assertTrue(GladiatorGame.AssetPack.read(pack), "Asset pack rejected");
+        assertArrayEquals(data, GladiatorGame.TextureAtlas.data);
+        assertArrayEquals(offsets, GladiatorGame.TextureAtlas.offsets);
+        assertArrayEquals(sounds, GladiatorGame.AssetPack.sounds);
+        byte[] bytes = Files.readAllBytes(pack.toPath());
+        for (int at : new int[]{5, bytes.length / 2, bytes.length - 1}) { // Version, atlas, checksum
+            bytes[at] ^= 1;
+            Files.write(pack.toPath(), bytes);
+            assertFalse(GladiatorGame.AssetPack.read(pack), "Damaged asset pack accepted (byte " + at + ")");
+            bytes[at] ^= 1;
+        }
+        Files.write(pack.toPath(), Arrays.copyOf(bytes, bytes.length - 9));
+        assertFalse(GladiatorGame.AssetPack.read(pack), "Truncated asset pack accepted");
+    }
+
+    // A pack of 128x128 textures, each the stock one doubled, must load at that size and draw the same frame with
+    // mipmaps off, since every screen pixel then lands on one of the four copies of the texel it used to read
+    @Test
+    void highResPackRenders() throws IOException {
+        File pack = dir.resolve("hires.pack").toFile();
+        GladiatorGame.AssetPack.bake();
+        try {
+            GameFixture f = fixture(800, 600, 300);
+            f.screen.setWorkers(1);
+            f.screen.mipmaps = false;
+            int[] stock = new int[f.pix.length];
+            f.screen.render(f.camera, f.level, stock, 3.0);
+            f.screen.renderSprites(f.camera, f.submit(), stock, 3.0);
+
+            int shift = 7, edge = 1 << shift, count = GladiatorGame.TextureManager.COUNT + 1, per = GladiatorGame.TextureAtlas.perTexture(shift);
+            int[] data = new int[count*per], offsets = new int[count*(shift + 1)];
+            for (int t=0; t<count; t++) {
+                int src = GladiatorGame.TextureAtlas.offset(t, 0);
+                for (int l=0, at=t*per; l<=shift; l++) {
+                    int e = edge >> l;
+                    offsets[t*(shift + 1) + l] = at;
+                    for (int y=0; y<e; y++) for (int x=0; x<e; x++) // Nearest texel of level 0; only level 0 is drawn
+                        data[at + y*e + x] = GladiatorGame.TextureAtlas.data[src + ((y << l) >> 1)*64 + ((x << l) >> 1)];
+                    at += e*e;
+                }
+            }
+            GladiatorGame.TextureAtlas.set(shift, data, offsets);
+            GladiatorGame.AssetPack.write(pack);
+            GladiatorGame.AssetPack.bake();
+            assertTrue(GladiatorGame.AssetPack.read(pack), "High-res asset pack rejected");
+            assertEquals(edge, GladiatorGame.TextureAtlas.size);
+            f.screen.render(f.camera, f.level, f.pix, 3.0);
+            f.screen.renderSprites(f.camera, f.submit(), f.pix, 3.0);
+            assertArrayEquals(stock, f.pix, "High-res pack draws a different frame");
+            f.screen.mipmaps = true;
+            f.screen.render(f.camera, f.level, f.pix, 3.0); // Every mip level in range
+            f.screen.renderSprites(f.camera, f.submit(), f.pix, 3.0);
+        } finally {
+            GladiatorGame.AssetPack.bake();
+        }
+    }
+}
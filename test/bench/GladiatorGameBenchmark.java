@@ -0,0 +1,126 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.*;
+
+// JMH counterparts of the hot cases in GladiatorBench, with forks and proper warmup: mvn -B -Pjmh verify
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GladiatorGameBenchmark {
+
+    // Builds the named case from GladiatorGameCases, which lives in the default package with the game
+    static LongSupplier op(String name, Class<?>[] types, Object... args) {
+        try {
+            return (LongSupplier) Class.forName("GladiatorGameCases").getMethod(name, types).invoke(null, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No benchmark case " + name, e);
+        }
+    }
+
+    static int[] size(String res) {
+        String[] wh = res.split("x");
+        return new int[]{Integer.parseInt(wh[0]), Integer.parseInt(wh[1])};
+    }
+
+    @State(Scope.Thread)
+    public static class Walls {
+        @Param({"800x600", "1024x768", "1280x720", "1920x1080"}) public String res;
+        @Param({"128", "512"}) public int map;
+        @Param({"false", "true"}) public boolean field;
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            int[] r = size(res);
+            op = op("raycast", new Class<?>[]{int.class, int.class, int.class, boolean.class}, r[0], r[1], map, field);
+        }
+    }
+
+    @Benchmark
+    public long raycast(Walls s) { return s.op.getAsLong(); }
+
+    @State(Scope.Thread)
+    public static class Frame {
+        @Param({"800x600", "1024x768", "1280x720", "1920x1080"}) public String res;
+        @Param({"1", "4"}) public int threads;
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            int[] r = size(res);
+            op = op("render", new Class<?>[]{int.class, int.class, int.class}, r[0], r[1], threads);
+        }
+    }
+
+    @Benchmark
+    public long render(Frame s) { return s.op.getAsLong(); }
+
+    @State(Scope.Thread)
+    public static class Sprites {
+        @Param({"800x600", "1024x768", "1280x720", "1920x1080"}) public String res;
+        @Param({"3", "30", "300", "3000"}) public int enemies;
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            int[] r = size(res);
+            op = op("sprites", new Class<?>[]{int.class, int.class, int.class}, r[0], r[1], enemies);
+        }
+    }
+
+    @Benchmark
+    public long sprites(Sprites s) { return s.op.getAsLong(); }
+
+    @State(Scope.Thread)
+    public static class Crowd {
+        @Param({"3", "30", "300", "3000", "10000"}) public int enemies;
+        @Param({"false", "true"}) public boolean lod;
+        LongSupplier op;
+
+        @Setup
+        public void setup() { op = op("ai", new Class<?>[]{int.class, boolean.class}, enemies, lod); }
+    }
+
+    @Benchmark
+    public long ai(Crowd s) { return s.op.getAsLong(); }
+
+    @State(Scope.Thread)
+    public static class BigMap {
+        LongSupplier op;
+
+        @Setup
+        public void setup() { op = op("flowRetarget", new Class<?>[0]); }
+    }
+
+    @Benchmark
+    public long flowRetarget(BigMap s) { return s.op.getAsLong(); }
+
+    @State(Scope.Thread)
+    public static class Publish {
+        @Param({"3", "30", "300", "3000"}) public int enemies;
+        LongSupplier op;
+
+        @Setup
+        public void setup() { op = op("snapshotPublish", new Class<?>[]{int.class}, enemies); }
+    }
+
+    @Benchmark
+    public long snapshotPublish(Publish s) { return s.op.getAsLong(); }
+
+    @State(Scope.Thread)
+    public static class Blood {
+        @Param({"1", "10", "100"}) public int hits;
+        LongSupplier op;
+
+        @Setup
+        public void setup() { op = op("particles", new Class<?>[]{int.class}, hits); }
+    }
+
+    @Benchmark
+    public long particles(Blood s) { return s.op.getAsLong(); }
+}